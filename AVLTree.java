@@ -1,1176 +1,5575 @@
-/**
- *
- * AVLTree - Yoav Gaulan 
- *
- * An implementation of a AVL Tree with
- * distinct integer keys and info
- *
- */
-
-public class AVLTree {
-
-    private IAVLNode minNode;
-    private IAVLNode maxNode;
-    private IAVLNode root;
-    private AVLNode NIL;
-
-    public AVLTree() {
-        AVLNode NIL = new AVLNode();
-        this.maxNode = null;
-        this.minNode = null;
-        this.NIL = NIL;
-        this.root = NIL;
-
-    }
-
-                               //////// Public functions ////////
-
-
-    public IAVLNode minNode(){
-        return minNode;
-    }
-    /**
-     * set root for empty tree
-     */
-
-
-    public void setRoot(int k, String s) {
-        IAVLNode x = new AVLNode(k, s, NIL);
-        this.root = x;
-        this.maxNode = this.minNode = x;
-    }
-
-
-    /**
-     * public boolean empty()
-     * <p>
-     * returns true if and only if the tree is empty
-     */
-
-    public boolean empty() {
-        return this.root == null | this.root == NIL;
-    }
-
-    /**
-     * public String search(int k)
-     * <p>
-     * returns the info of an item with key k if it exists in the tree
-     * otherwise, returns null
-     */
-    public String search(int k) {
-        return (recSearch(this.root, k)).getValue();
-    }
-
-    /**
-     * public int insert(int k, String i)
-     * <p>
-     * inserts an item with key k and info i to the AVL tree.
-     * the tree must remain valid (keep its invariants).
-     * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
-     * returns -1 if an item with key k already exists in the tree.
-     */
-    public int insert(int k, String i) {
-        if (empty()) {
-            this.setRoot(k, i);
-            return 0;
-        } else {
-            int cnt = 0;
-            IAVLNode y = insertRec(root, NIL, k, i);
-            if (y == null) {
-                return -1;
-            } else {
-                boolean changed = true;
-                while ((y != NIL ) & changed) {
-                    int oldHeight = y.getHeight();
-                    updateHeight(y);
-                    changed = (oldHeight != y.getHeight());
-                    int bf = BF(y);
-                    if (bf > 1 | bf < -1) {
-                        return BalanceAfterInsert(bf, y);
-
-                    } else {
-                        y = y.getParent();
-                    }
-                }
-                return cnt;
-            }
-        }
-    }
-
-    /**
-     * public int delete(int k)
-     * <p>
-     * deletes an item with key k from the binary tree, if it is there;
-     * the tree must remain valid (keep its invariants).
-     * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
-     * returns -1 if an item with key k was not found in the tree.
-     */
-    public int delete(int k) {
-        if (empty() | search(k) == null) {
-            return -1;
-        }
-        int num_of_ops = 0 ;
-        IAVLNode to_del = deleteRecSearch(this.root, k);
-        //Case: node isn't in the tree or the tree is already empty
-        actuallDelete(to_del);
-        IAVLNode y = to_del.getParent();
-        boolean changed = true;
-        while (y != NIL) {
-            int oldHeight = y.getHeight();
-            updateHeight(y);
-            int bf_y = BF(y);
-            changed = (oldHeight != y.getHeight());
-
-            if ((bf_y == -1 | bf_y == 0 | bf_y == 1) && (!changed)) {
-                return num_of_ops ;
-            }
-            else if ((bf_y == -1 | bf_y == 0 | bf_y == 1) && (changed)) {
-                y = y.getParent() ;
-            }
-            else if ((bf_y == 2 || bf_y == -2 ) ) {
-                //Now we deleted the node, but remained with unbalanced tree, let's fix it:
-                num_of_ops += deleteCase(y, bf_y) ;
-                y= y.getParent().getParent() ;
-            }
-
-        }
-
-
-        return num_of_ops ;
-    }
-
-
-    /**
-     * public String min()
-     * <p>
-     * Returns the info of the item with the smallest key in the tree,
-     * or null if the tree is empty
-     */
-    public String min() {
-        if (this.empty()) {
-            return null;
-        } else {
-            return this.minNode.getValue();
-        }
-
-    }
-
-    /**
-     * public String max()
-     * <p>
-     * Returns the info of the item with the largest key in the tree,
-     * or null if the tree is empty
-     */
-    public String max() {
-        if (this.empty()) {
-            return null;
-        } else {
-            return this.maxNode.getValue();
-        }
-    }
-
-
-    /**
-     * public int[] keysToArray()
-     * <p>
-     * Returns a sorted array which contains all keys in the tree,
-     * or an empty array if the tree is empty.
-     */
-    public int[] keysToArray() {
-
-        int[] arr = new int[size()];
-        if (size() > 0) {
-            Inorder(root, 0, arr);
-        }
-
-        return arr;
-    }
-
-    /**
-     * public String[] infoToArray()
-     *
-     * Returns an array which contains all info in the tree,
-     * sorted by their respective keys,
-     * or an empty array if the tree is empty.
-     */
-    public String[] infoToArray ()
-    {
-        String[] arr = new String[size()];
-        if(size() > 0) {
-            InorderStrings(root, 0, arr);
-        }
-        return arr;
-    }
-
-    /**
-     * public int size()
-     *
-     * Returns the number of nodes in the tree.
-     *
-     * precondition: none
-     * postcondition: none
-     */
-    public int size ()
-    {
-        if(empty()){
-            return 0;
-        }
-        else{
-            return root.getSubtreeSize(); //
-        }
-    }
-
-    /**
-     * public int getRoot()
-     *
-     * Returns the root AVL node, or null if the tree is empty
-     *
-     * precondition: none
-     * postcondition: none
-     */
-    public IAVLNode getRoot ()
-    {
-        if(this.empty()){
-            return null;
-        }
-        else{
-            return this.root;
-        }
-    }
-    /**
-     * public string select(int i)
-     *
-     * Returns the value of the i'th smallest key (return null if tree is empty)
-     * Example 1: select(1) returns the value of the node with minimal key
-     * Example 2: select(size()) returns the value of the node with maximal key
-     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
-     *
-     * precondition: size() >= i > 0
-     * postcondition: none
-     */
-    public String select(int i)
-    {
-        IAVLNode subRoot = subTreeRootSelect(i);
-        return NaiveSelect(subRoot, i);
-    }
-
-    /**
-     * public int less(int i)
-     *
-     * Returns the sum of all keys which are less or equal to i
-     * i is not neccessarily a key in the tree
-     *
-     * precondition: none
-     * postcondition: none
-     */
-    public int less ( int i)
-    {
-        return iterativeLess(root, i);
-    }
-
-                        /////////// Private functions ///////////
-
-
-    /**
-     * set the min node of the tree
-     */
-    private void setMin(IAVLNode x) {
-        this.minNode = x;
-    }
-
-    /**
-     * set the max node of the tree
-     */
-    private void setMax(IAVLNode x) {
-        this.maxNode = x;
-    }
-
-    /**
-     * update min/max if needed after insertion
-     */
-    private void updateEdges(IAVLNode x) {
-        if (x.getKey() < this.minNode.getKey()) {
-            this.setMin(x);
-        }
-        if (x.getKey() > this.maxNode.getKey()) {
-            this.setMax(x);
-        }
-    }
-
-
-    /**
-     * calculate and set the new  size of node x
-     */
-    private void updateSize(IAVLNode x) {
-        x.setSubtreeSize(1 + x.getLeft().getSubtreeSize() + x.getRight().getSubtreeSize());
-    }
-
-
-    /**
-     * helper function for balance subtree after insertion and returns number of rotations
-     */
-
-    private int BalanceAfterInsert(int bf, IAVLNode node) {
-        if (bf == 2) {
-            int childBF = BF(node.getLeft());
-            if (childBF == 1) {
-                rotateLL(node);
-                return 1;
-            } else if (childBF == -1) {
-                rotateLR(node);
-                return 2;
-            }
-
-        } else if (bf == -2) {
-            int childBF = BF(node.getRight());
-            if (childBF == 1) {
-                rotateRL(node);
-                return 2;
-            } else if (childBF == -1) {
-                rotateRR(node);
-                return 1;
-            }
-
-        }
-
-
-        return 0;
-
-    }
-
-
-
-    /** update size and height to node */
-    private void updateFields(IAVLNode node){
-        updateSize(node);
-        updateHeight(node);
-        updateSum(node);
-    }
-
-
-
-    /**
-     * Rotates the given subtree to the right.
-     *
-     * @return the right rotated subtree
-     */
-    private IAVLNode rotateLL(IAVLNode x) {
-        IAVLNode y = x.getLeft();
-        IAVLNode z = x.getParent();
-        x.setLeft(y.getRight());
-        if (z != NIL) {
-            if(z.getLeft() == x){
-                z.setLeft(y);
-            }
-            else{
-                z.setRight(y);
-            }
-        }
-        y.setRight(x);
-        updateFields(x);
-        updateFields(y);
-        if(z==NIL){
-            this.root = y;
-            y.setParent(NIL);
-        }
-        return y;
-    }
-
-    /**
-     * Rotates the given subtree to the left.
-     *
-     * @return left rotated subtree
-     */
-    private IAVLNode rotateRR(IAVLNode x) {
-        IAVLNode y = x.getRight();
-        IAVLNode z = x.getParent();
-        x.setRight(y.getLeft());
-        if (z != NIL) {
-            if(z.getLeft() == x){
-                z.setLeft(y);
-            }
-            else{
-                z.setRight(y);
-            }
-        }
-        y.setLeft(x);
-        updateFields(x);
-        updateFields(y);
-        if(z==NIL){
-            this.root = y;
-            y.setParent(NIL);
-        }
-        return y;
-
-    }
-
-    /**
-     * double rotate LR
-     */
-    private IAVLNode rotateLR(IAVLNode x) {
-        x.setLeft(rotateRR(x.getLeft()));
-        x = rotateLL(x);
-        return x;
-    }
-
-    /**
-     * double rotate RL
-     */
-    private IAVLNode rotateRL(IAVLNode x) {
-        x.setRight(rotateLL(x.getRight()));
-        x = rotateRR(x);
-        return x;
-    }
-
-
-
-
-    /**
-     * update the new height gor node x
-     */
-
-    private void updateHeight(IAVLNode x) {
-        x.setHeight(Math.max(x.getLeft().getHeight(), x.getRight().getHeight()) + 1);
-    }
-
-    /**
-     * add one to node.size (+1)
-     */
-
-    private void SizePlus(IAVLNode x) {
-        x.setSubtreeSize(x.getSubtreeSize() + 1);
-    }
-
-
-    /**
-     * Recursive search with subtree and key
-     * return the key's node or null if the key not in the subtree
-     */
-
-    private IAVLNode recSearch(IAVLNode x, int k) {
-        if (x == null | x == NIL) {
-            return NIL;
-        }
-        if (x.getKey() == k) {
-            return x;
-        } else if (x.getKey() < k) {
-            return recSearch(x.getRight(), k);
-        } else {
-            return recSearch(x.getLeft(), k);
-        }
-    }
-
-
-    /** update size after deletion (size = size - 1 );
-     *
-     */
-    private void sizeMinus(IAVLNode x){
-        int newSize = x.getSubtreeSize() - 1;
-        x.setSubtreeSize(newSize);
-    }
-
-
-    /** update subTree keys sum */
-
-    private void updateSum(IAVLNode x){
-        int newSum = x.getKey() + x.getLeft().getSum() + x.getRight().getSum();
-        x.setSum(newSum);
-    }
-
-    /** update the subTree keys some after insertion */
-
-    private void updateSumAfterInsert(IAVLNode x, int newKey){
-        int newSum = x.getSum() + newKey;
-        x.setSum(newSum);
-    }
-
-    /** update the subtree sum after deletion */
-    private void updateSumAfterDeletion(IAVLNode x, int key){
-        int newSum = x.getSum() - key;
-        x.setSum(newSum);
-    }
-
-
-
-    /**
-     * helper function for insertion, returns the parent of the new node
-     */
-
-
-    private IAVLNode insertRec(IAVLNode x, IAVLNode prev, int k, String s) {
-
-        if (x == NIL) {
-            IAVLNode newchild = new AVLNode(k, s, prev);
-            updateEdges(newchild);
-            if (prev.getKey() > k) {
-                prev.setLeft(newchild);
-
-            } else {
-                prev.setRight(newchild);
-            }
-            return prev;
-        }
-
-        if (x.getKey() == k) {
-            return null;
-        } else if (x.getKey() < k) {
-            IAVLNode toReturn = insertRec(x.getRight(), x, k, s);
-            if (toReturn != null) {
-                SizePlus(x);
-                updateSumAfterInsert(x, k);
-            }
-            return toReturn;
-
-        } else {
-            IAVLNode toReturn = insertRec(x.getLeft(), x, k, s);
-            if (toReturn != null) {
-                SizePlus(x);
-                updateSumAfterInsert(x,k);
-            }
-
-            return toReturn;
-        }
-    }
-
-    /** search the node we want to delete, if the node is not inner node, updates the nodes size & sum on the path */
-
-    private IAVLNode deleteRecSearch(IAVLNode x, int k) {
-
-        if (x == NIL) {
-            return null;
-        }
-
-        if (x.getKey() == k) {
-            return x;
-        } else if (x.getKey() < k) {
-            IAVLNode toReturn = deleteRecSearch(x.getRight(),  k);
-            if (toReturn != null & NotInnerNode(toReturn)) {
-                sizeMinus(x);
-                updateSumAfterDeletion(x,k);
-            }
-            return toReturn;
-
-        } else {
-            IAVLNode toReturn = deleteRecSearch(x.getLeft(), k);
-            if (toReturn != null & NotInnerNode(toReturn) ) {
-                sizeMinus(x);
-                updateSumAfterDeletion(x,k);
-            }
-
-            return toReturn;
-        }
-    }
-
-
-
-
-    /**returns True only if node x has less then 2 real children*/
-    private boolean NotInnerNode(IAVLNode x){
-        return (x.getLeft()== NIL | x.getRight()== NIL);
-    }
-
-
-    /** returns the balance factor of node x */
-    private int BF(IAVLNode x) {
-        if(x == NIL){
-            return 0;
-        }
-        int bf = x.getLeft().getHeight() - x.getRight().getHeight();
-        return bf;
-    }
-
-
-    private IAVLNode successor(IAVLNode node) {
-
-        if (node.getKey() == maxNode.getKey() ){
-            return NIL ;
-        }
-
-        else if  (node.getRight() != NIL) {
-            return nextMin(node.getRight());
-        }
-        else {
-            IAVLNode parent_node = node.getParent() ;
-            while ((parent_node != NIL) && (parent_node.getRight() == node)) {
-                node = parent_node;
-                parent_node = node.getParent();
-            }
-            return parent_node ;
-
-
-        }
-
-    }
-
-    //helper function to find the successor//
-    private IAVLNode nextMin(IAVLNode node) {
-        IAVLNode current = node;
-        while(current.getLeft() != NIL){
-            current = current.getLeft();
-        }
-        return current;
-    }
-
-
-    private IAVLNode predecessor(IAVLNode node) {
-
-        if (node.getKey() == minNode.getKey() ){
-            return NIL ;
-        }
-
-        else if ( (node.getLeft() != NIL)) {
-            return prevMax(node.getLeft());
-        }
-        else {
-            IAVLNode parent_node = node.getParent() ;
-            while ((parent_node != NIL) && (parent_node.getLeft() == node)) {
-                node = parent_node;
-                parent_node = node.getParent();
-            }
-            return parent_node ;
-
-
-        }
-
-    }
-
-    //helper function to find predecessor//
-    private IAVLNode prevMax(IAVLNode node) {
-
-        IAVLNode next_node = node ;
-        while (next_node.getRight() != NIL) {
-            next_node = next_node.getRight() ;
-        }
-        return next_node ;
-    }
-
-
-
-
-
-
-    /** balance after deletion, returns the numbers of the rotations **/
-    private int deleteCase(IAVLNode y, int bf ) {
-
-        IAVLNode y_right = y.getRight();
-        IAVLNode y_left = y.getLeft();
-        if (bf == 2) {
-            if ((BF(y_left) == 0) || (BF(y_left) == 1)) {
-                rotateLL(y);
-                return 1;
-            } else if (BF(y_left) == -1) {
-                rotateLR(y);
-                return 2;
-            }
-        }
-        else { //here bf == -2
-            if (BF(y_right) == 1) {
-                rotateRL(y);
-                return 2;
-            } else {
-                rotateRR(y);
-                return 1;
-            }
-
-        }
-        return 0;
-    }
-
-
-
-
-
-    /** min and max update after deletion **/
-    private void updateEdgesForDelete(IAVLNode x) {
-        if (this.size() <= 1) {
-            this.minNode = this.maxNode = null ;
-        } else {
-            if (x == minNode) {
-                this.minNode = successor(x);
-            }
-
-            if (x == maxNode) {
-                this.maxNode = predecessor(x);
-            }
-        }
-    }
-
-    /**execution of delete**/
-    private void actuallDelete(IAVLNode ToDelNode) {
-        updateEdgesForDelete(ToDelNode);
-        //Case: the node we want to delete is a leaf.
-        if (!(ToDelNode.getRight().isRealNode()) && !(ToDelNode.getLeft().isRealNode())) {
-            if (ToDelNode.getParent() == NIL) {
-                this.root = NIL;
-            }
-            else{
-                if(ToDelNode.getParent().getLeft() == ToDelNode){
-                    ToDelNode.getParent().setLeft(NIL);
-                }
-                else {
-                    ToDelNode.getParent().setRight(NIL);
-                }
-            }
-
-        }
-        //Case: the node we want do delte has only 1 real child , and we bypass (2 options)
-        else if (ToDelNode.getRight().isRealNode() && ToDelNode.getLeft()== NIL ) {
-            if(ToDelNode == root){
-                this.root = ToDelNode.getRight();
-                ToDelNode.getRight().setParent(NIL);
-            }
-            if (ToDelNode.getParent().getRight() == ToDelNode) {
-                ToDelNode.getParent().setRight(ToDelNode.getRight());
-            } else {
-                ToDelNode.getParent().setLeft(ToDelNode.getRight());
-
-            }
-        }
-        else if (ToDelNode.getRight() == NIL  && ToDelNode.getLeft().isRealNode() ) {
-            if(ToDelNode == root){
-                this.root = ToDelNode.getLeft();
-                ToDelNode.getLeft().setParent(NIL);
-            }
-            if (ToDelNode.getParent().getRight() == ToDelNode) {
-                ToDelNode.getParent().setRight(ToDelNode.getLeft());
-            } else {
-                ToDelNode.getParent().setLeft(ToDelNode.getLeft());
-            }
-            //Case: regular node with 2 child's
-        }
-        else{
-            IAVLNode to_del_successor = successor(ToDelNode);
-            replaceNodes(ToDelNode, to_del_successor);
-            updateSizeAfterReplaceDEL(ToDelNode);
-            actuallDelete(ToDelNode);
-
-
-
-        }
-
-    }
-
-
-
-/** if we deleted inner node we didnt updated nodes size & sum on the way, so we do it now**/
-    private void updateSizeAfterReplaceDEL(IAVLNode x){
-        while(x != root){
-            sizeMinus(x.getParent());
-            updateSum(x.getParent());
-            x = x.getParent();
-
-        }
-    }
-
-
-    /** switch  nodes parents between father(nodeA) and child(nodeB) */
-
-    private void switchFatherSonParents( IAVLNode nodeA, IAVLNode nodeB){
-        IAVLNode parA = nodeA.getParent();
-        if(parA == NIL){
-            nodeB.setParent(NIL);
-            root = nodeB;
-
-        }
-        else if(nodeA.getParent().getLeft() == nodeA) {
-            parA.setLeft(nodeB);
-        }
-        else{
-            parA.setRight(nodeB);
-        }
-        if(nodeA.getKey() > nodeB.getKey()){
-            nodeB.setRight(nodeA);
-        }
-        else{
-            nodeB.setLeft(nodeA);
-        }
-    }
-
-
-
-
-    /** switch between two nodes parents */
-
-    private void switchParets(IAVLNode nodeA, IAVLNode nodeB){
-        IAVLNode parentA = nodeA.getParent();
-        IAVLNode parentB = nodeB.getParent();
-        boolean parentA_NIL = false;
-        boolean parentB_NIL = false;
-
-        if (parentA == NIL) {
-            nodeB.setParent(NIL);
-            root = nodeB;
-            parentA_NIL = true;
-        } else if (parentB == NIL) {
-            nodeA.setParent(NIL);
-            root = nodeA;
-            parentB_NIL = true;
-        }
-
-        if (!parentA_NIL) {
-            if (parentA.getKey() > nodeA.getKey()) {
-                parentA.setLeft(nodeB);
-            } else {
-                parentA.setRight(nodeB);
-            }
-        }
-        if (!parentB_NIL) {
-            if (parentB.getKey() > nodeB.getKey()) {
-                parentB.setLeft(nodeA);
-            } else {
-                parentB.setRight(nodeA);
-            }
-        }
-    }
-
-
-
-    /** switch between two nodes  */
-
-    private void replaceNodes(IAVLNode nodeA, IAVLNode nodeB){
-        if(nodeA == nodeB.getParent()){
-            replaceParentAndChild(nodeA,nodeB);
-        }
-        else if( nodeB == nodeA.getParent()){
-            replaceParentAndChild(nodeB,nodeA);
-        }
-        else {
-
-            IAVLNode nodeA_left = nodeA.getLeft();
-            IAVLNode nodeA_right = nodeA.getRight();
-            int sizeA = nodeA.getSubtreeSize();
-            int heightA = nodeA.getHeight();
-            switchParets(nodeA, nodeB);
-            //change A's data to B's data//
-            nodeA.setSubtreeSize(nodeB.getSubtreeSize());
-            nodeA.setHeight(nodeB.getHeight());
-            nodeA.setLeft(nodeB.getLeft());
-            nodeA.setRight(nodeB.getRight());
-            //change B's data to A's data//
-            nodeB.setSubtreeSize(sizeA);
-            nodeB.setHeight(heightA);
-            nodeB.setLeft(nodeA_left);
-            nodeB.setRight(nodeA_right);
-            updateSum(nodeA);
-            updateSum(nodeB);
-        }
-    }
-
-
-    /** switch between two nodes when nodeA is the parent nodeB one of his children**/
-    private void replaceParentAndChild(IAVLNode nodeA, IAVLNode nodeB){
-        IAVLNode leftB = nodeB.getLeft();
-        IAVLNode rightB = nodeB.getRight();
-        int sizeB = nodeB.getSubtreeSize();
-        int heightB = nodeB.getHeight();
-        switchFatherSonParents(nodeA,nodeB);
-        nodeB.setHeight(nodeA.getHeight());
-        nodeB.setSubtreeSize(nodeA.getSubtreeSize());
-        if(nodeA.getLeft() == nodeB){
-            nodeB.setRight(nodeA.getRight());
-            nodeB.setLeft(nodeA);
-        }
-        else{
-            nodeB.setLeft(nodeA.getLeft());
-            nodeB.setRight(nodeA);
-        }
-        nodeA.setRight(rightB);
-        nodeA.setLeft(leftB);
-        nodeA.setSubtreeSize(sizeB);
-        nodeA.setHeight(heightB);
-        updateSum(nodeA);
-        updateSum(nodeB);
-
-
-
-    }
-
-
-
-
-
-
-    /** helper function for keysToArray, inorder walk  */
-    private int Inorder(IAVLNode node, int index, int[] arr){
-        if(node != NIL){
-            index = Inorder(node.getLeft(), index, arr);
-            arr[index] = node.getKey();
-            index++;
-            index = Inorder(node.getRight(), index, arr);
-        }
-        return index;
-    }
-
-
-
-    /**  helper function  for infoToArray , inorder walk */
-    private int InorderStrings (IAVLNode node, int index, String[] arr){
-        if(node != NIL){
-            index = InorderStrings(node.getLeft(), index, arr);
-            arr[index] = node.getValue();
-            index++;
-            index = InorderStrings(node.getRight(),index, arr);
-        }
-        return index;
-    }
-
-
-
-
-
-
-
-
-/** finds the subtree root for execution select in O(i) */
-    private IAVLNode subTreeRootSelect(int i){
-        IAVLNode newSelectRoot = minNode;
-        if(i > this.size() || i < 1){
-            return NIL;
-        }
-        while (newSelectRoot.getSubtreeSize() < i && (newSelectRoot != NIL || newSelectRoot != null)){
-            newSelectRoot = newSelectRoot.getParent();
-        }
-        return newSelectRoot;
-    }
-
-
-/** naive select function , helper function to Select */
-
-    private String NaiveSelect (IAVLNode subtreeRoot ,int i) {
-        if (subtreeRoot == NIL || subtreeRoot == null || i < 1 || subtreeRoot.getSubtreeSize() < i ) {
-            return null ;
-
-        }
-        else {
-            return selectRec(subtreeRoot, i);
-
-        }
-
-    }
-
-
-/** helper recursive function for select **/
-    private String selectRec(IAVLNode node,int i) {
-        int left_size = node.getLeft().getSubtreeSize() + 1  ;
-        if (left_size == i ) {
-            return node.getValue() ;
-        }
-        else if (i < left_size  ) {
-            return selectRec(node.getLeft(),i   ) ;
-
-        }
-        else {
-
-            return selectRec(node.getRight(), i - left_size) ;
-        }
-    }
-
-
-
-
-
-
-/** helper function for Less: iterative search for the key k , and sums all the keys then less then k */
-private int iterativeLess(IAVLNode curr, int k) {
-    int summ = 0;
-    IAVLNode prev = curr.getParent();
-    while(curr != NIL && curr.getKey() != k){
-        prev = curr;
-        if(k < curr.getKey()){
-            curr = curr.getLeft();
-
-        }
-        if(k > curr.getKey()){
-            summ += curr.getKey();
-            summ += curr.getLeft().getSum();
-            curr = curr.getRight();
-        }
-    }
-    if(curr.getKey() == k){
-        summ += curr.getKey();
-        summ += curr.getLeft().getSum();
-        return summ;
-    }
-
-    return summ;
-
-}
-
-
-/** returns the sum of all keys in the tree **/
-private int SubtreeSum(IAVLNode SubRoot ){
-    int keySum = 0;
-    if(SubRoot != NIL){
-        keySum += SubRoot.getKey();
-        keySum += SubtreeSum(SubRoot.getLeft());
-        keySum += SubtreeSum(SubRoot.getRight());
-
-
-
-    }
-    return keySum;
-
-}
-
-
-
-    /**
-     * public interface IAVLNode
-     * ! Do not delete or modify this - otherwise all tests will fail !
-     */
-    public interface IAVLNode {
-        public int getKey(); //returns node's key (for virtuval node return -1)
-
-        public String getValue(); //returns node's value [info] (for virtuval node return null)
-
-        public void setLeft(IAVLNode node); //sets left child
-
-        public IAVLNode getLeft(); //returns left child (if there is no left child return null)
-
-        public void setRight(IAVLNode node); //sets right child
-
-        public IAVLNode getRight(); //returns right child (if there is no right child return null)
-
-        public void setParent(IAVLNode node); //sets parent
-
-        public IAVLNode getParent(); //returns the parent (if there is no parent return null)
-
-        public boolean isRealNode(); // Returns True if this is a non-virtual AVL node
-
-        public void setSubtreeSize(int size); // sets the number of real nodes in this node's subtree
-
-        public int getSubtreeSize(); // Returns the number of real nodes in this node's subtree (Should be implemented in O(1))
-
-        public void setHeight(int height); // sets the height of the node
-
-        public int getHeight(); // Returns the height of the node (-1 for virtual nodes)
-
-        public int getSum(); // Returns the key's sum of the node subtree
-
-        public void setSum(int newSum); // sets new sum of the node
-    }
-
-
-    /**
-     * public class AVLNode
-     *
-     * If you wish to implement classes other than AVLTree
-     * (for example AVLNode), do it in this file, not in
-     * another file.
-     * This class can and must be modified.
-     * (It must implement IAVLNode)
-     */
-    public class AVLNode implements IAVLNode{
-
-        private int key;
-        private String info;
-        private IAVLNode parent;
-        private IAVLNode left;
-        private IAVLNode right;
-        private int size;
-        private int height;
-        private int sum;
-
-
-        public AVLNode(int key,String info, IAVLNode parent) {
-            this.key = key;
-            this.info = info;
-            this.parent = parent;
-            this.size = 1;
-            this.height = 0;
-            this.left = NIL;
-            this.right = NIL;
-            this.sum = key;
-        }
-
-        private AVLNode() {
-            this(-1, null, null);
-            this.size = 0;
-            this.height = -1;
-            this.left = null;
-            this.right = null;
-            this.sum = 0;
-        }
-
-
-        public int getKey()
-        {
-            return this.key;
-        }
-        public String getValue()
-        {
-            return this.info;
-        }
-        public void setLeft(IAVLNode node) {
-            this.left = node;
-            if(node!= NIL & node != null){
-                node.setParent(this);
-            }
-        }
-
-        public IAVLNode getLeft()
-        {
-            return this.left;
-        }
-        public void setRight(IAVLNode node) {
-            this.right = node;
-            if(node!= NIL & node != null){
-                node.setParent(this);
-            }
-        }
-        public IAVLNode getRight()
-        {
-            return this.right;
-        }
-        public void setParent(IAVLNode node)
-        {
-            this.parent = node;
-        }
-        public IAVLNode getParent()
-        {
-            return this.parent;
-        }
-        // Returns True if this is a non-virtual AVL node
-        public boolean isRealNode()
-        {
-            if(this.key == -1) {
-                return false;
-            }
-            else {
-                return true;
-            }
-        }
-
-        public void setSubtreeSize(int size)
-        {
-            this.size = size;
-        }
-        public int getSubtreeSize()
-        {
-            return this.size;
-        }
-        public void setHeight(int height)
-        {
-            this.height = height;
-        }
-        public int getHeight()
-        {
-            return this.height;
-        }
-        public int getSum(){
-            return this.sum;
-        }
-        public void setSum(int newSum){
-            this.sum = newSum;
-        }
-
-
-
-
-
-
-
-
-
-    }
-}
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * AVLTree - Yoav Gaulan 
+ *
+ * An implementation of a AVL Tree with
+ * distinct integer keys and info
+ *
+ */
+
+public class AVLTree {
+
+    private IAVLNode minNode;
+    private IAVLNode maxNode;
+    private IAVLNode root;
+    // the virtual node, shared by all trees so nodes can move between trees (split / join).
+    // it is never written to.
+    private static final AVLNode NIL = new AVLNode();
+    // kept in every node when not null
+    private final Aggregate aggregate;
+    // told about every operation when not null
+    private Listener listener;
+    // the infos of new nodes are replaced by their canonical instance when not null
+    private InfoDictionary dictionary;
+
+    public AVLTree() {
+        this(null);
+    }
+
+    /**
+     * an empty tree which keeps the given aggregate over every subtree,
+     * see rangeAggregate. a null aggregate costs nothing.
+     */
+    public AVLTree(Aggregate aggregate) {
+        this.maxNode = null;
+        this.minNode = null;
+        this.root = NIL;
+        this.aggregate = aggregate;
+    }
+
+                               //////// Public functions ////////
+
+
+    public IAVLNode minNode(){
+        return minNode;
+    }
+    /**
+     * set root for empty tree
+     */
+
+
+    public void setRoot(int k, String s) {
+        IAVLNode x = newNode(k, s, NIL);
+        updateAggregate(x);
+        this.root = x;
+        this.maxNode = this.minNode = x;
+    }
+
+
+    /**
+     * public boolean empty()
+     * <p>
+     * returns true if and only if the tree is empty
+     */
+
+    public boolean empty() {
+        return this.root == null | this.root == NIL;
+    }
+
+    /**
+     * public String search(int k)
+     * <p>
+     * returns the info of an item with key k if it exists in the tree
+     * otherwise, returns null
+     */
+    public String search(int k) {
+        if (listener != null) {
+            listener.searched(searchDepth(k));
+        }
+        return (iterativeSearch(this.root, k)).getValue();
+    }
+
+    /**
+     * public int insert(int k, String i)
+     * <p>
+     * inserts an item with key k and info i to the AVL tree.
+     * the tree must remain valid (keep its invariants).
+     * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+     * returns -1 if an item with key k already exists in the tree.
+     */
+    public int insert(int k, String i) {
+        if (empty()) {
+            this.setRoot(k, i);
+            if (listener != null) {
+                listener.inserted(0, 1, 0);
+            }
+            return 0;
+        } else {
+            IAVLNode prev = insertionParent(root, k);
+            if (prev == null) {
+                return -1;
+            }
+            hangLeaf(prev, k, i);
+            return fixAfterInsert(prev, k);
+        }
+    }
+
+    /**
+     * public int delete(int k)
+     * <p>
+     * deletes an item with key k from the binary tree, if it is there;
+     * the tree must remain valid (keep its invariants).
+     * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+     * returns -1 if an item with key k was not found in the tree.
+     */
+    public int delete(int k) {
+        if (empty()) {
+            return -1;
+        }
+        IAVLNode to_del = iterativeSearch(this.root, k);
+        //Case: node isn't in the tree
+        if (to_del == NIL) {
+            return -1;
+        }
+        return deleteNode(to_del);
+    }
+
+    /**
+     * public int insertAll(int[] keys, String[] infos)
+     *
+     * inserts the items (keys[j], infos[j]), keys already in the tree (or earlier in the batch) are skipped.
+     * the batch is sorted first and inserted in increasing key order, and each descent starts
+     * from the lowest ancestor of the previous insert that can hold the next key, instead of from the root.
+     * sizes and sums above the rebalanced part are fixed once per shared ancestor (see batchStart)
+     * instead of up to the root for every key.
+     * returns the total number of rebalancing operations, which is the sum insert would return
+     * for the keys one by one in increasing order: the deferred fix ups change no height.
+     * throws IllegalArgumentException if the arrays differ in length
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int insertAll(int[] keys, String[] infos) {
+        if (keys.length != infos.length) {
+            throw new IllegalArgumentException("got " + keys.length + " keys and " + infos.length + " infos");
+        }
+        // key in the high half, batch index in the low half: sorts by key, then by batch order
+        long[] order = new long[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            order[j] = ((long) keys[j] << 32) | j;
+        }
+        Arrays.sort(order);
+        int[] cnt = new int[1];
+        IAVLNode finger = NIL;
+        IAVLNode stale = NIL;
+        for (long packed : order) {
+            int k = (int) (packed >> 32);
+            String info = infos[(int) packed];
+            if (empty()) {
+                setRoot(k, info);
+                if (listener != null) {
+                    listener.inserted(0, 1, 0);
+                }
+                finger = root;
+                continue;
+            }
+            IAVLNode start;
+            if (stale != NIL) {
+                start = batchStart(stale, k);
+                stale = start.getParent();
+            } else {
+                start = (finger == NIL) ? root : fingerStart(finger, k);
+            }
+            IAVLNode prev = insertionParent(start, k);
+            if (prev != null) {
+                int before = cnt[0];
+                int depth = (listener == null) ? 0 : depthOf(prev) + 1;
+                finger = hangLeaf(prev, k, info);
+                stale = rebalanceAfterInsert(prev, cnt);
+                if (listener != null) {
+                    // heights are never left stale, only sizes and sums
+                    listener.inserted(cnt[0] - before, depth, root.getHeight());
+                }
+            }
+        }
+        updateSizeAndSumUp(stale);
+        return cnt[0];
+    }
+
+    /**
+     * public int deleteAll(int[] keys)
+     *
+     * deletes the items with the given keys, keys not in the tree are skipped.
+     * the batch is sorted first and deleted in increasing key order, and each search starts
+     * from the successor of the previously deleted node instead of from the root.
+     * sizes and sums above the rebalanced part are fixed once per shared ancestor (see batchStart).
+     * returns the total number of rebalancing operations, which is the sum delete would return
+     * for the keys one by one in increasing order.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int deleteAll(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        int[] cnt = new int[1];
+        // smallest key in the tree above the last deleted key, NIL before the first delete
+        IAVLNode finger = NIL;
+        IAVLNode stale = NIL;
+        for (int j = 0; j < sorted.length && !empty(); j++) {
+            int k = sorted[j];
+            if (finger != NIL && finger.getKey() > k) {
+                // k lies between the last deleted key and its successor
+                continue;
+            }
+            IAVLNode start;
+            if (stale != NIL) {
+                start = batchStart(stale, k);
+                stale = start.getParent();
+            } else {
+                start = (finger == NIL) ? root : fingerStart(finger, k);
+            }
+            IAVLNode x = (finger != NIL && finger.getKey() == k) ? finger : iterativeSearch(start, k);
+            if (x != NIL) {
+                int before = cnt[0];
+                int depth = (listener == null) ? 0 : depthOf(x);
+                finger = successor(x);
+                updateEdgesForDelete(x);
+                stale = rebalanceAfterDelete(unlink(x), cnt);
+                if (listener != null) {
+                    listener.deleted(cnt[0] - before, depth, root.getHeight());
+                }
+            }
+        }
+        updateSizeAndSumUp(stale);
+        return cnt[0];
+    }
+
+    /**
+     * public String min()
+     * <p>
+     * Returns the info of the item with the smallest key in the tree,
+     * or null if the tree is empty
+     */
+    public String min() {
+        if (this.empty()) {
+            return null;
+        } else {
+            return this.minNode.getValue();
+        }
+
+    }
+
+    /**
+     * public String max()
+     * <p>
+     * Returns the info of the item with the largest key in the tree,
+     * or null if the tree is empty
+     */
+    public String max() {
+        if (this.empty()) {
+            return null;
+        } else {
+            return this.maxNode.getValue();
+        }
+    }
+
+
+    /**
+     * public int[] keysToArray()
+     * <p>
+     * Returns a sorted array which contains all keys in the tree,
+     * or an empty array if the tree is empty.
+     */
+    public int[] keysToArray() {
+
+        int[] arr = new int[size()];
+        if (size() > 0) {
+            Inorder(arr);
+        }
+
+        return arr;
+    }
+
+    /**
+     * public String[] infoToArray()
+     *
+     * Returns an array which contains all info in the tree,
+     * sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     */
+    public String[] infoToArray ()
+    {
+        String[] arr = new String[size()];
+        if(size() > 0) {
+            InorderStrings(arr);
+        }
+        return arr;
+    }
+
+    /**
+     * public int size()
+     *
+     * Returns the number of nodes in the tree.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int size ()
+    {
+        if(empty()){
+            return 0;
+        }
+        else{
+            return root.getSubtreeSize(); //
+        }
+    }
+
+    /**
+     * public int getRoot()
+     *
+     * Returns the root AVL node, or null if the tree is empty
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode getRoot ()
+    {
+        if(this.empty()){
+            return null;
+        }
+        else{
+            return this.root;
+        }
+    }
+    /**
+     * public string select(int i)
+     *
+     * Returns the value of the i'th smallest key (return null if tree is empty)
+     * Example 1: select(1) returns the value of the node with minimal key
+     * Example 2: select(size()) returns the value of the node with maximal key
+     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
+     *
+     * precondition: size() >= i > 0
+     * postcondition: none
+     */
+    public String select(int i)
+    {
+        return iterativeSelect(i).getValue();
+    }
+
+    /**
+     * public IAVLNode selectNode(int i)
+     *
+     * Returns the node of the i'th smallest key, so its key and value are both at hand,
+     * or null if there is no such node. a single O(log n) descent from the root
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode selectNode(int i)
+    {
+        IAVLNode node = iterativeSelect(i);
+        return (node == NIL) ? null : node;
+    }
+
+    /**
+     * public int rank(int k)
+     *
+     * Returns the rank of key k, the i for which select(i) is k's value
+     * (the inverse of select), or -1 if k is not in the tree. O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int rank(int k)
+    {
+        int cnt = 0;
+        IAVLNode curr = root;
+        while (curr != NIL) {
+            if (k < curr.getKey()) {
+                curr = curr.getLeft();
+            } else {
+                cnt += curr.getLeft().getSubtreeSize() + 1;
+                if (curr.getKey() == k) {
+                    return cnt;
+                }
+                curr = curr.getRight();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * public long less(int i)
+     *
+     * Returns the sum of all keys which are less or equal to i
+     * i is not neccessarily a key in the tree
+     * the sum is a long, so it does not overflow for any tree of int keys
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public long less ( int i)
+    {
+        return iterativeLess(root, i);
+    }
+
+    /**
+     * public static AVLTree fromSorted(int[] keys, String[] infos)
+     *
+     * Builds a perfectly balanced tree from keys in increasing order and their infos, in O(n).
+     * throws IllegalArgumentException if the arrays differ in length or the keys are not strictly increasing
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public static AVLTree fromSorted(int[] keys, String[] infos)
+    {
+        return fromSorted(keys, infos, null);
+    }
+
+    /**
+     * public static AVLTree fromSorted(int[] keys, String[] infos, Aggregate aggregate)
+     *
+     * Same as fromSorted(keys, infos), for a tree which keeps the given aggregate.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public static AVLTree fromSorted(int[] keys, String[] infos, Aggregate aggregate)
+    {
+        if (keys.length != infos.length) {
+            throw new IllegalArgumentException("got " + keys.length + " keys and " + infos.length + " infos");
+        }
+        for (int j = 1; j < keys.length; j++) {
+            if (keys[j - 1] >= keys[j]) {
+                throw new IllegalArgumentException("keys are not strictly increasing at index " + j);
+            }
+        }
+        AVLTree tree = new AVLTree(aggregate);
+        if (keys.length > 0) {
+            tree.root = tree.buildBalanced(keys, infos, 0, keys.length - 1, NIL);
+            tree.minNode = tree.nextMin(tree.root);
+            tree.maxNode = tree.prevMax(tree.root);
+        }
+        return tree;
+    }
+
+    /**
+     * public int append(int k, String i)
+     *
+     * inserts an item like insert(k, i). when k is larger than every key in the tree
+     * the new node is hung right of the max node without a descent from the root,
+     * which makes loading keys in increasing order cheap.
+     * returns the same as insert(k, i)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int append(int k, String i)
+    {
+        if (empty() || k <= maxNode.getKey()) {
+            return insert(k, i);
+        }
+        IAVLNode prev = maxNode;
+        hangLeaf(prev, k, i);
+        return fixAfterInsert(prev, k);
+    }
+
+    /**
+     * public AVLTree[] split(int k)
+     *
+     * Splits the tree at key k in O(log n): returns {tree of the keys < k, tree of the keys > k}.
+     * the item with key k, if there is one, is dropped.
+     * the nodes move to the returned trees, and this tree is left empty.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public AVLTree[] split(int k)
+    {
+        AVLTree lower = new AVLTree(aggregate);
+        AVLTree upper = new AVLTree(aggregate);
+        lower.listener = upper.listener = listener;
+        lower.dictionary = upper.dictionary = dictionary;
+        IAVLNode x = root;
+        IAVLNode last = NIL;
+        while (x != NIL && x.getKey() != k) {
+            last = x;
+            x = (x.getKey() < k) ? x.getRight() : x.getLeft();
+        }
+        IAVLNode lowRoot = NIL;
+        IAVLNode highRoot = NIL;
+        IAVLNode u = last;
+        if (x != NIL) {
+            lowRoot = detach(x.getLeft());
+            highRoot = detach(x.getRight());
+            u = x.getParent();
+        }
+        // bottom up along the search path, every node joins the side it belongs to
+        while (u != NIL) {
+            IAVLNode next = u.getParent();
+            if (k < u.getKey()) {
+                highRoot = upper.joinNodes(highRoot, u, detach(u.getRight()));
+            } else {
+                lowRoot = lower.joinNodes(detach(u.getLeft()), u, lowRoot);
+            }
+            u = next;
+        }
+        lower.adopt(lowRoot);
+        upper.adopt(highRoot);
+        this.adopt(NIL);
+        return new AVLTree[] {lower, upper};
+    }
+
+    /**
+     * public static AVLTree join(AVLTree lower, int k, String v, AVLTree upper)
+     *
+     * Returns a tree of the items of lower, the item (k, v) and the items of upper, in O(log n).
+     * the nodes move to the returned tree, and lower and upper are left empty.
+     * throws IllegalArgumentException unless all keys of lower < k < all keys of upper,
+     * or if lower and upper keep different aggregates
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public static AVLTree join(AVLTree lower, int k, String v, AVLTree upper)
+    {
+        if ((!lower.empty() && lower.maxNode.getKey() >= k) || (!upper.empty() && upper.minNode.getKey() <= k)) {
+            throw new IllegalArgumentException("keys of lower must be < " + k + " < keys of upper");
+        }
+        if (lower.aggregate != upper.aggregate) {
+            throw new IllegalArgumentException("lower and upper keep different aggregates");
+        }
+        AVLTree tree = new AVLTree(lower.aggregate);
+        tree.listener = (lower.listener != null) ? lower.listener : upper.listener;
+        tree.dictionary = (lower.dictionary != null) ? lower.dictionary : upper.dictionary;
+        IAVLNode x = tree.newNode(k, v, NIL);
+        tree.adopt(tree.joinNodes(lower.root, x, upper.root));
+        lower.adopt(NIL);
+        upper.adopt(NIL);
+        return tree;
+    }
+
+    /**
+     * public Cursor cursor()
+     *
+     * Returns a cursor over the items of the tree, not positioned on any item yet.
+     * a cursor walks the tree in place (no array is built) and allocates nothing per item.
+     * inserting or deleting items invalidates the cursors of the tree.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public Cursor cursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * public void setListener(Listener listener)
+     *
+     * Sets the listener told about every insert, delete, search and rotation of the tree,
+     * null (the default) to stop. with no listener the operations only pay a null check.
+     * insertAll and deleteAll report each item they insert or delete, append reports as insert.
+     * split and join pass the listener on to the trees they make (join the one of lower, or else of upper).
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * public void setInfoDictionary(InfoDictionary dictionary)
+     *
+     * From now on, the info of every new item is replaced by the dictionary's canonical
+     * instance of an equal string, so items with equal infos share one String.
+     * split and join pass the dictionary on to the trees they make. null (the default) to stop.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public void setInfoDictionary(InfoDictionary dictionary)
+    {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * public IAVLNode floor(int k)
+     *
+     * Returns the node of the largest key <= k, or null if there is none. O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode floor(int k)
+    {
+        IAVLNode node = floorNode(k);
+        return (node == NIL) ? null : node;
+    }
+
+    /**
+     * public IAVLNode ceiling(int k)
+     *
+     * Returns the node of the smallest key >= k, or null if there is none. O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode ceiling(int k)
+    {
+        IAVLNode node = ceilingNode(k);
+        return (node == NIL) ? null : node;
+    }
+
+    /**
+     * public IAVLNode lower(int k)
+     *
+     * Returns the node of the largest key < k, or null if there is none. O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode lower(int k)
+    {
+        return (k == Integer.MIN_VALUE) ? null : floor(k - 1);
+    }
+
+    /**
+     * public IAVLNode higher(int k)
+     *
+     * Returns the node of the smallest key > k, or null if there is none. O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public IAVLNode higher(int k)
+    {
+        return (k == Integer.MAX_VALUE) ? null : ceiling(k + 1);
+    }
+
+    /**
+     * public int rangeCount(int lo, int hi)
+     *
+     * Returns the number of keys k with lo <= k <= hi, in O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public int rangeCount(int lo, int hi)
+    {
+        if (lo > hi) {
+            return 0;
+        }
+        int below = (lo == Integer.MIN_VALUE) ? 0 : countLessOrEqual(lo - 1);
+        return countLessOrEqual(hi) - below;
+    }
+
+    /**
+     * public long rangeSum(int lo, int hi)
+     *
+     * Returns the sum of the keys k with lo <= k <= hi, in O(log n)
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public long rangeSum(int lo, int hi)
+    {
+        if (lo > hi) {
+            return 0;
+        }
+        long below = (lo == Integer.MIN_VALUE) ? 0 : less(lo - 1);
+        return less(hi) - below;
+    }
+
+    /**
+     * public long rangeAggregate(int lo, int hi)
+     *
+     * Returns the tree's aggregate over the items with lo <= key <= hi, combined in key order,
+     * in O(log n): it combines the kept values of the whole subtrees hanging off the two
+     * boundary paths. returns the aggregate's identity if there are no such items.
+     * throws IllegalStateException if the tree was made without an aggregate
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public long rangeAggregate(int lo, int hi)
+    {
+        if (aggregate == null) {
+            throw new IllegalStateException("the tree keeps no aggregate");
+        }
+        // the highest node inside the range, the boundary paths split below it
+        IAVLNode x = root;
+        while (x != NIL && (x.getKey() < lo || x.getKey() > hi)) {
+            x = (x.getKey() < lo) ? x.getRight() : x.getLeft();
+        }
+        if (x == NIL || lo > hi) {
+            return aggregate.identity();
+        }
+        // left part: the items >= lo of x's left subtree, found from the largest down
+        long leftPart = aggregate.identity();
+        IAVLNode y = x.getLeft();
+        while (y != NIL) {
+            if (y.getKey() >= lo) {
+                long upper = aggregate.combine(aggregate.of(y.getKey(), y.getValue()), aggregateOf(y.getRight()));
+                leftPart = aggregate.combine(upper, leftPart);
+                y = y.getLeft();
+            } else {
+                y = y.getRight();
+            }
+        }
+        // right part: the items <= hi of x's right subtree, found from the smallest up
+        long rightPart = aggregate.identity();
+        y = x.getRight();
+        while (y != NIL) {
+            if (y.getKey() <= hi) {
+                long lower = aggregate.combine(aggregateOf(y.getLeft()), aggregate.of(y.getKey(), y.getValue()));
+                rightPart = aggregate.combine(rightPart, lower);
+                y = y.getRight();
+            } else {
+                y = y.getLeft();
+            }
+        }
+        long middle = aggregate.combine(leftPart, aggregate.of(x.getKey(), x.getValue()));
+        return aggregate.combine(middle, rightPart);
+    }
+
+    /**
+     * public Iterator<IAVLNode> rangeIterator(int lo, int hi)
+     *
+     * Returns an iterator over the nodes with lo <= key <= hi in key order,
+     * O(log n) to start and O(1) amortized per node. the nodes themselves are returned,
+     * nothing is allocated per node.
+     * inserting or deleting items invalidates the iterator.
+     *
+     * precondition: none
+     * postcondition: none
+     */
+    public Iterator<IAVLNode> rangeIterator(int lo, int hi)
+    {
+        IAVLNode start = (lo > hi) ? NIL : ceilingNode(lo);
+        return new Iterator<IAVLNode>() {
+            private IAVLNode node = start;
+
+            public boolean hasNext() {
+                return node != NIL && node.getKey() <= hi;
+            }
+
+            public IAVLNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                IAVLNode current = node;
+                node = successor(node);
+                return current;
+            }
+        };
+    }
+
+                        /////////// Private functions ///////////
+
+
+    /**
+     * set the min node of the tree
+     */
+    private void setMin(IAVLNode x) {
+        this.minNode = x;
+    }
+
+    /**
+     * set the max node of the tree
+     */
+    private void setMax(IAVLNode x) {
+        this.maxNode = x;
+    }
+
+    /**
+     * update min/max if needed after insertion
+     */
+    private void updateEdges(IAVLNode x) {
+        if (x.getKey() < this.minNode.getKey()) {
+            this.setMin(x);
+        }
+        if (x.getKey() > this.maxNode.getKey()) {
+            this.setMax(x);
+        }
+    }
+
+
+    /**
+     * calculate and set the new  size of node x
+     */
+    private void updateSize(IAVLNode x) {
+        x.setSubtreeSize(1 + x.getLeft().getSubtreeSize() + x.getRight().getSubtreeSize());
+    }
+
+
+    /**
+     * helper function for balance subtree after insertion and returns number of rotations
+     */
+
+    private int BalanceAfterInsert(int bf, IAVLNode node) {
+        if (bf == 2) {
+            int childBF = BF(node.getLeft());
+            if (childBF == 1) {
+                rotateLL(node);
+                rotated(Rotation.LL);
+                return 1;
+            } else if (childBF == -1) {
+                rotateLR(node);
+                rotated(Rotation.LR);
+                return 2;
+            }
+
+        } else if (bf == -2) {
+            int childBF = BF(node.getRight());
+            if (childBF == 1) {
+                rotateRL(node);
+                rotated(Rotation.RL);
+                return 2;
+            } else if (childBF == -1) {
+                rotateRR(node);
+                rotated(Rotation.RR);
+                return 1;
+            }
+
+        }
+
+
+        return 0;
+
+    }
+
+
+
+    /** update size and height to node */
+    private void updateFields(IAVLNode node){
+        updateSize(node);
+        updateHeight(node);
+        updateSum(node);
+        updateAggregate(node);
+    }
+
+
+
+    /**
+     * Rotates the given subtree to the right.
+     *
+     * @return the right rotated subtree
+     */
+    private IAVLNode rotateLL(IAVLNode x) {
+        IAVLNode y = x.getLeft();
+        IAVLNode z = x.getParent();
+        x.setLeft(y.getRight());
+        if (z != NIL) {
+            if(z.getLeft() == x){
+                z.setLeft(y);
+            }
+            else{
+                z.setRight(y);
+            }
+        }
+        y.setRight(x);
+        updateFields(x);
+        updateFields(y);
+        if(z==NIL){
+            this.root = y;
+            y.setParent(NIL);
+        }
+        return y;
+    }
+
+    /**
+     * Rotates the given subtree to the left.
+     *
+     * @return left rotated subtree
+     */
+    private IAVLNode rotateRR(IAVLNode x) {
+        IAVLNode y = x.getRight();
+        IAVLNode z = x.getParent();
+        x.setRight(y.getLeft());
+        if (z != NIL) {
+            if(z.getLeft() == x){
+                z.setLeft(y);
+            }
+            else{
+                z.setRight(y);
+            }
+        }
+        y.setLeft(x);
+        updateFields(x);
+        updateFields(y);
+        if(z==NIL){
+            this.root = y;
+            y.setParent(NIL);
+        }
+        return y;
+
+    }
+
+    /**
+     * double rotate LR
+     */
+    private IAVLNode rotateLR(IAVLNode x) {
+        x.setLeft(rotateRR(x.getLeft()));
+        x = rotateLL(x);
+        return x;
+    }
+
+    /**
+     * double rotate RL
+     */
+    private IAVLNode rotateRL(IAVLNode x) {
+        x.setRight(rotateLL(x.getRight()));
+        x = rotateRR(x);
+        return x;
+    }
+
+
+
+
+    /**
+     * update the new height gor node x
+     */
+
+    private void updateHeight(IAVLNode x) {
+        x.setHeight(Math.max(x.getLeft().getHeight(), x.getRight().getHeight()) + 1);
+    }
+
+    /**
+     * add one to node.size (+1)
+     */
+
+    private void SizePlus(IAVLNode x) {
+        x.setSubtreeSize(x.getSubtreeSize() + 1);
+    }
+
+
+    /**
+     * Iterative search with subtree and key
+     * return the key's node or NIL if the key not in the subtree
+     */
+
+    private IAVLNode iterativeSearch(IAVLNode x, int k) {
+        while (x != NIL) {
+            int key = x.getKey();
+            if (key == k) {
+                return x;
+            } else if (key < k) {
+                x = x.getRight();
+            } else {
+                x = x.getLeft();
+            }
+        }
+        return NIL;
+    }
+
+
+    /** update subTree keys sum */
+
+    private void updateSum(IAVLNode x){
+        long newSum = x.getKey() + longSum(x.getLeft()) + longSum(x.getRight());
+        ((AVLNode) x).setLongSum(newSum);
+    }
+
+    /** update the subTree keys some after insertion */
+
+    private void updateSumAfterInsert(IAVLNode x, int newKey){
+        long newSum = longSum(x) + newKey;
+        ((AVLNode) x).setLongSum(newSum);
+    }
+
+    /** the full subTree keys sum of x */
+    private static long longSum(IAVLNode x){
+        return ((AVLNode) x).getLongSum();
+    }
+
+    /** update subTree aggregate from the children, if the tree keeps one */
+
+    private void updateAggregate(IAVLNode x){
+        if (aggregate != null) {
+            long lower = aggregate.combine(aggregateOf(x.getLeft()), aggregate.of(x.getKey(), x.getValue()));
+            ((AggregateNode) x).aggregate = aggregate.combine(lower, aggregateOf(x.getRight()));
+        }
+    }
+
+    /** the subTree aggregate of x, the identity for the virtual node */
+    private long aggregateOf(IAVLNode x){
+        return (x == NIL) ? aggregate.identity() : ((AggregateNode) x).aggregate;
+    }
+
+
+
+    /**
+     * helper function for insertion, iterative descent from x.
+     * returns the parent of the new node, or null if key k is already in the subtree
+     */
+
+    private IAVLNode insertionParent(IAVLNode x, int k) {
+        IAVLNode prev = x.getParent();
+        while (x != NIL) {
+            int key = x.getKey();
+            if (key == k) {
+                return null;
+            }
+            prev = x;
+            x = (key < k) ? x.getRight() : x.getLeft();
+        }
+        return prev;
+    }
+
+    /**
+     * a new node (k, s) under parent, with room for the aggregate if the tree keeps one,
+     * and the canonical instance of s if the tree has a dictionary
+     */
+    private AVLNode newNode(int k, String s, IAVLNode parent) {
+        String info = (dictionary == null) ? s : dictionary.intern(s);
+        return (aggregate == null) ? new AVLNode(k, info, parent) : new AggregateNode(k, info, parent);
+    }
+
+    /** hangs a new node (k, s) as a child of prev and updates min/max, returns the new node */
+    private IAVLNode hangLeaf(IAVLNode prev, int k, String s) {
+        IAVLNode newchild = newNode(k, s, prev);
+        updateAggregate(newchild);
+        updateEdges(newchild);
+        if (prev.getKey() > k) {
+            prev.setLeft(newchild);
+        } else {
+            prev.setRight(newchild);
+        }
+        return newchild;
+    }
+
+    /**
+     * fingerStart for insertAll/deleteAll, which defer the size and sum fix ups: between two keys
+     * the sizes and sums of node stale and its ancestors may be out of date, every other node
+     * and every height is up to date.
+     * climbs from stale like fingerStart (k lies above the lower end of stale's subtree)
+     * and recomputes the nodes it passes, so the subtree of the returned node is up to date
+     * and only its ancestors are left stale.
+     */
+    private IAVLNode batchStart(IAVLNode stale, int k) {
+        IAVLNode x = stale;
+        while (true) {
+            updateSize(x);
+            updateSum(x);
+            IAVLNode parent = x.getParent();
+            if (parent == NIL || (parent.getLeft() == x && k < parent.getKey())) {
+                return x;
+            }
+            x = parent;
+        }
+    }
+
+    /**
+     * for a key k >= finger's key, climbs from finger to the lowest ancestor
+     * whose subtree covers k, so a descent from there finds k or its place
+     */
+    private IAVLNode fingerStart(IAVLNode finger, int k) {
+        IAVLNode x = finger;
+        while (x.getParent() != NIL) {
+            IAVLNode parent = x.getParent();
+            if (parent.getLeft() == x && k < parent.getKey()) {
+                break;
+            }
+            x = parent;
+        }
+        return x;
+    }
+
+    /**
+     * fix up pass after a node with key k was hung under y.
+     * walks up to the root adding the new node to size, sum & aggregate, and rebalances
+     * while heights keep changing. returns number of rotations
+     */
+
+    private int fixAfterInsert(IAVLNode y, int k) {
+        int depth = (listener == null) ? 0 : depthOf(y) + 1;
+        int cnt = 0;
+        boolean changed = true;
+        while (y != NIL) {
+            IAVLNode parent = y.getParent();
+            SizePlus(y);
+            updateSumAfterInsert(y, k);
+            updateAggregate(y);
+            if (changed) {
+                int oldHeight = y.getHeight();
+                updateHeight(y);
+                changed = (oldHeight != y.getHeight());
+                int bf = BF(y);
+                if (bf > 1 | bf < -1) {
+                    cnt = BalanceAfterInsert(bf, y);
+                    changed = false;
+                }
+            }
+            y = parent;
+        }
+        if (listener != null) {
+            listener.inserted(cnt, depth, root.getHeight());
+        }
+        return cnt;
+    }
+
+    /** builds a balanced subtree of keys[lo..hi] under parent, returns its root */
+    private IAVLNode buildBalanced(int[] keys, String[] infos, int lo, int hi, IAVLNode parent) {
+        if (lo > hi) {
+            return NIL;
+        }
+        int mid = (lo + hi) >>> 1;
+        IAVLNode x = newNode(keys[mid], infos[mid], parent);
+        x.setLeft(buildBalanced(keys, infos, lo, mid - 1, x));
+        x.setRight(buildBalanced(keys, infos, mid + 1, hi, x));
+        updateFields(x);
+        return x;
+    }
+
+    /** makes subtree r (whose parent is NIL) the whole tree */
+    private void adopt(IAVLNode r) {
+        this.root = r;
+        if (r == NIL) {
+            this.minNode = this.maxNode = null;
+        } else {
+            this.minNode = nextMin(r);
+            this.maxNode = prevMax(r);
+        }
+    }
+
+    /** cuts subtree x off its parent (the parent's pointer is left for the caller), returns x */
+    private IAVLNode detach(IAVLNode x) {
+        if (x != NIL) {
+            x.setParent(NIL);
+        }
+        return x;
+    }
+
+    /**
+     * joins the detached subtrees l < x < r into one AVL subtree and returns its root.
+     * x is hung on the spine of the taller subtree at the height of the lower one,
+     * then the path up is fixed, in O(|height(l) - height(r)| + 1)
+     */
+    private IAVLNode joinNodes(IAVLNode l, IAVLNode x, IAVLNode r) {
+        int hl = l.getHeight();
+        int hr = r.getHeight();
+        IAVLNode p = NIL;
+        if (hl > hr + 1) {
+            IAVLNode c = l;
+            while (c.getHeight() > hr + 1) {
+                p = c;
+                c = c.getRight();
+            }
+            x.setLeft(c);
+            x.setRight(r);
+            updateFields(x);
+            p.setRight(x);
+        } else if (hr > hl + 1) {
+            IAVLNode c = r;
+            while (c.getHeight() > hl + 1) {
+                p = c;
+                c = c.getLeft();
+            }
+            x.setLeft(l);
+            x.setRight(c);
+            updateFields(x);
+            p.setLeft(x);
+        } else {
+            x.setParent(NIL);
+            x.setLeft(l);
+            x.setRight(r);
+            updateFields(x);
+            return x;
+        }
+        IAVLNode y = p;
+        while (y != NIL) {
+            IAVLNode parent = y.getParent();
+            updateFields(y);
+            int bf = BF(y);
+            if (bf == 2 || bf == -2) {
+                deleteCase(y, bf);
+            }
+            y = parent;
+        }
+        // p is still in the joined subtree, its root is above it
+        while (p.getParent() != NIL) {
+            p = p.getParent();
+        }
+        return p;
+    }
+
+    /** returns the balance factor of node x */
+    private int BF(IAVLNode x) {
+        if(x == NIL){
+            return 0;
+        }
+        int bf = x.getLeft().getHeight() - x.getRight().getHeight();
+        return bf;
+    }
+
+
+    /** returns the node of the smallest key >= k, or NIL */
+    private IAVLNode ceilingNode(int k) {
+        IAVLNode x = root;
+        IAVLNode best = NIL;
+        while (x != NIL) {
+            if (x.getKey() == k) {
+                return x;
+            } else if (x.getKey() > k) {
+                best = x;
+                x = x.getLeft();
+            } else {
+                x = x.getRight();
+            }
+        }
+        return best;
+    }
+
+    /** returns the node of the largest key <= k, or NIL */
+    private IAVLNode floorNode(int k) {
+        IAVLNode x = root;
+        IAVLNode best = NIL;
+        while (x != NIL) {
+            if (x.getKey() == k) {
+                return x;
+            } else if (x.getKey() < k) {
+                best = x;
+                x = x.getRight();
+            } else {
+                x = x.getLeft();
+            }
+        }
+        return best;
+    }
+
+    /** top down select from the root, returns the node of the i'th smallest key or NIL */
+    private IAVLNode iterativeSelect(int i) {
+        if (i < 1 || i > size()) {
+            return NIL;
+        }
+        IAVLNode node = root;
+        while (true) {
+            int left_size = node.getLeft().getSubtreeSize() + 1;
+            if (left_size == i) {
+                return node;
+            } else if (i < left_size) {
+                node = node.getLeft();
+            } else {
+                i -= left_size;
+                node = node.getRight();
+            }
+        }
+    }
+
+    private IAVLNode successor(IAVLNode node) {
+
+        if (node.getKey() == maxNode.getKey() ){
+            return NIL ;
+        }
+
+        else if  (node.getRight() != NIL) {
+            return nextMin(node.getRight());
+        }
+        else {
+            IAVLNode parent_node = node.getParent() ;
+            while ((parent_node != NIL) && (parent_node.getRight() == node)) {
+                node = parent_node;
+                parent_node = node.getParent();
+            }
+            return parent_node ;
+
+
+        }
+
+    }
+
+    //helper function to find the successor//
+    private IAVLNode nextMin(IAVLNode node) {
+        IAVLNode current = node;
+        while(current.getLeft() != NIL){
+            current = current.getLeft();
+        }
+        return current;
+    }
+
+
+    private IAVLNode predecessor(IAVLNode node) {
+
+        if (node.getKey() == minNode.getKey() ){
+            return NIL ;
+        }
+
+        else if ( (node.getLeft() != NIL)) {
+            return prevMax(node.getLeft());
+        }
+        else {
+            IAVLNode parent_node = node.getParent() ;
+            while ((parent_node != NIL) && (parent_node.getLeft() == node)) {
+                node = parent_node;
+                parent_node = node.getParent();
+            }
+            return parent_node ;
+
+
+        }
+
+    }
+
+    //helper function to find predecessor//
+    private IAVLNode prevMax(IAVLNode node) {
+
+        IAVLNode next_node = node ;
+        while (next_node.getRight() != NIL) {
+            next_node = next_node.getRight() ;
+        }
+        return next_node ;
+    }
+
+
+
+
+
+
+    /** tells the listener, if any, about a rotation **/
+    private void rotated(Rotation rotation) {
+        if (listener != null) {
+            listener.rotated(rotation);
+        }
+    }
+
+    /** the number of nodes on the path from the root to x **/
+    private int depthOf(IAVLNode x) {
+        int depth = 0;
+        for (; x != NIL; x = x.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /** the number of nodes a search for k visits **/
+    private int searchDepth(int k) {
+        int depth = 0;
+        IAVLNode x = root;
+        while (x != NIL) {
+            depth++;
+            if (x.getKey() == k) {
+                break;
+            }
+            x = (x.getKey() < k) ? x.getRight() : x.getLeft();
+        }
+        return depth;
+    }
+
+    /** balance after deletion, returns the numbers of the rotations **/
+    private int deleteCase(IAVLNode y, int bf ) {
+
+        IAVLNode y_right = y.getRight();
+        IAVLNode y_left = y.getLeft();
+        if (bf == 2) {
+            if ((BF(y_left) == 0) || (BF(y_left) == 1)) {
+                rotateLL(y);
+                rotated(Rotation.LL);
+                return 1;
+            } else if (BF(y_left) == -1) {
+                rotateLR(y);
+                rotated(Rotation.LR);
+                return 2;
+            }
+        }
+        else { //here bf == -2
+            if (BF(y_right) == 1) {
+                rotateRL(y);
+                rotated(Rotation.RL);
+                return 2;
+            } else {
+                rotateRR(y);
+                rotated(Rotation.RR);
+                return 1;
+            }
+
+        }
+        return 0;
+    }
+
+
+
+
+
+    /** min and max update after deletion **/
+    private void updateEdgesForDelete(IAVLNode x) {
+        if (this.minNode == this.maxNode) { // x is the only node, size() may be stale in deleteAll
+            this.minNode = this.maxNode = null ;
+        } else {
+            if (x == minNode) {
+                this.minNode = successor(x);
+            }
+
+            if (x == maxNode) {
+                this.maxNode = predecessor(x);
+            }
+        }
+    }
+
+    /**
+     * deletes node to_del from the tree, with one bottom-up fix up pass.
+     * returns the number of rebalancing operations
+     */
+    private int deleteNode(IAVLNode to_del) {
+        int depth = (listener == null) ? 0 : depthOf(to_del);
+        updateEdgesForDelete(to_del);
+        IAVLNode y = unlink(to_del);
+        int num_of_ops = 0;
+        boolean rebalancing = true;
+        while (y != NIL) {
+            IAVLNode parent = y.getParent();
+            if (rebalancing) {
+                int oldHeight = y.getHeight();
+                updateFields(y);
+                int bf_y = BF(y);
+                if (bf_y == 2 || bf_y == -2) {
+                    //Now we deleted the node, but remained with unbalanced tree, let's fix it:
+                    num_of_ops += deleteCase(y, bf_y);
+                }
+                else if (oldHeight == y.getHeight()) {
+                    // heights above are unchanged, only size, sum & aggregate are left to fix
+                    rebalancing = false;
+                }
+            }
+            else {
+                updateSize(y);
+                updateSum(y);
+                updateAggregate(y);
+            }
+            y = parent;
+        }
+        if (listener != null) {
+            listener.deleted(num_of_ops, depth, root.getHeight());
+        }
+        return num_of_ops;
+    }
+
+    /**
+     * the rebalancing part of deleteNode's fix up pass for a batch, from y up: updates the fields of each node
+     * from its children and rotates, until a node keeps its height.
+     * adds the number of rotations to ops[0], and returns the parent of that node (NIL
+     * if the pass reached the root), the lowest node whose size and sum are not fixed yet
+     */
+    private IAVLNode rebalanceAfterDelete(IAVLNode y, int[] ops) {
+        while (y != NIL) {
+            IAVLNode parent = y.getParent();
+            int oldHeight = y.getHeight();
+            updateFields(y);
+            int bf_y = BF(y);
+            if (bf_y == 2 || bf_y == -2) {
+                //Now we deleted the node, but remained with unbalanced tree, let's fix it:
+                ops[0] += deleteCase(y, bf_y);
+            }
+            else if (oldHeight == y.getHeight()) {
+                return parent;
+            }
+            y = parent;
+        }
+        return NIL;
+    }
+
+    /**
+     * the rebalancing part of fixAfterInsert for a batch, from y (the parent of a new leaf) up:
+     * updates the fields of each node from its children, until a node keeps its height or
+     * is rotated. adds the number of rotations to ops[0], and returns the lowest node whose
+     * size and sum are not fixed yet (NIL if the pass reached the root)
+     */
+    private IAVLNode rebalanceAfterInsert(IAVLNode y, int[] ops) {
+        while (y != NIL) {
+            int oldHeight = y.getHeight();
+            updateFields(y);
+            int bf = BF(y);
+            if (bf > 1 | bf < -1) {
+                ops[0] += BalanceAfterInsert(bf, y);
+                // y went down, the node that took its place is up to date
+                return y.getParent().getParent();
+            }
+            if (oldHeight == y.getHeight()) {
+                return y.getParent();
+            }
+            y = y.getParent();
+        }
+        return NIL;
+    }
+
+    /** recomputes size and sum of x and of every ancestor of x */
+    private void updateSizeAndSumUp(IAVLNode x) {
+        while (x != NIL) {
+            updateSize(x);
+            updateSum(x);
+            x = x.getParent();
+        }
+    }
+
+    /**
+     * removes node x from the tree structure.
+     * a node with 2 children is replaced by its successor, which takes over x's
+     * place and height (size & sum are recomputed by the fix up pass).
+     * returns the lowest node whose subtree lost a node, where the fix up pass starts
+     */
+    private IAVLNode unlink(IAVLNode x) {
+        IAVLNode left = x.getLeft();
+        IAVLNode right = x.getRight();
+        if (left == NIL || right == NIL) {
+            IAVLNode child = (left == NIL) ? right : left;
+            replaceChild(x.getParent(), x, child);
+            return x.getParent();
+        }
+        IAVLNode succ = nextMin(right);
+        IAVLNode start;
+        if (succ == right) {
+            start = succ;
+        }
+        else {
+            start = succ.getParent();
+            start.setLeft(succ.getRight());
+            succ.setRight(right);
+        }
+        succ.setLeft(left);
+        succ.setHeight(x.getHeight());
+        replaceChild(x.getParent(), x, succ);
+        return start;
+    }
+
+    /** puts newChild in oldChild's place under parent (or as the root if parent is NIL) */
+    private void replaceChild(IAVLNode parent, IAVLNode oldChild, IAVLNode newChild) {
+        if (parent == NIL) {
+            this.root = newChild;
+            if (newChild != NIL) {
+                newChild.setParent(NIL);
+            }
+        }
+        else if (parent.getLeft() == oldChild) {
+            parent.setLeft(newChild);
+        }
+        else {
+            parent.setRight(newChild);
+        }
+    }
+
+    /** helper function for keysToArray, iterative inorder walk along the successors  */
+    private void Inorder(int[] arr){
+        IAVLNode node = minNode;
+        for (int index = 0; index < arr.length; index++) {
+            arr[index] = node.getKey();
+            node = successor(node);
+        }
+    }
+
+
+
+    /**  helper function  for infoToArray , iterative inorder walk along the successors */
+    private void InorderStrings (String[] arr){
+        IAVLNode node = minNode;
+        for (int index = 0; index < arr.length; index++) {
+            arr[index] = node.getValue();
+            node = successor(node);
+        }
+    }
+
+
+
+
+
+
+
+
+/** helper function for Less: iterative search for the key k , and sums all the keys then less then k */
+private long iterativeLess(IAVLNode curr, int k) {
+    long summ = 0;
+    while(curr != NIL && curr.getKey() != k){
+        if(k < curr.getKey()){
+            curr = curr.getLeft();
+        }
+        else {
+            summ += curr.getKey();
+            summ += longSum(curr.getLeft());
+            curr = curr.getRight();
+        }
+    }
+    if(curr != NIL){
+        summ += curr.getKey();
+        summ += longSum(curr.getLeft());
+        return summ;
+    }
+
+    return summ;
+
+}
+
+
+/** counts the keys which are less or equal to k, same descent as iterativeLess */
+private int countLessOrEqual(int k) {
+    int cnt = 0;
+    IAVLNode curr = root;
+    while(curr != NIL){
+        if(k < curr.getKey()){
+            curr = curr.getLeft();
+        }
+        else {
+            cnt += curr.getLeft().getSubtreeSize() + 1;
+            curr = curr.getRight();
+        }
+    }
+    return cnt;
+}
+
+
+/** returns the sum of all keys in the tree **/
+private int SubtreeSum(IAVLNode SubRoot ){
+    int keySum = 0;
+    if(SubRoot != NIL){
+        keySum += SubRoot.getKey();
+        keySum += SubtreeSum(SubRoot.getLeft());
+        keySum += SubtreeSum(SubRoot.getRight());
+
+
+
+    }
+    return keySum;
+
+}
+
+
+
+    /**
+     * public interface IAVLNode
+     * ! Do not delete or modify this - otherwise all tests will fail !
+     */
+    public interface IAVLNode {
+        public int getKey(); //returns node's key (for virtuval node return -1)
+
+        public String getValue(); //returns node's value [info] (for virtuval node return null)
+
+        public void setLeft(IAVLNode node); //sets left child
+
+        public IAVLNode getLeft(); //returns left child (if there is no left child return null)
+
+        public void setRight(IAVLNode node); //sets right child
+
+        public IAVLNode getRight(); //returns right child (if there is no right child return null)
+
+        public void setParent(IAVLNode node); //sets parent
+
+        public IAVLNode getParent(); //returns the parent (if there is no parent return null)
+
+        public boolean isRealNode(); // Returns True if this is a non-virtual AVL node
+
+        public void setSubtreeSize(int size); // sets the number of real nodes in this node's subtree
+
+        public int getSubtreeSize(); // Returns the number of real nodes in this node's subtree (Should be implemented in O(1))
+
+        public void setHeight(int height); // sets the height of the node
+
+        public int getHeight(); // Returns the height of the node (-1 for virtual nodes)
+
+        public int getSum(); // Returns the key's sum of the node subtree
+
+        public void setSum(int newSum); // sets new sum of the node
+    }
+
+
+    /**
+     * public interface Aggregate
+     *
+     * A monoid over the items which a tree keeps for every subtree (see AVLTree(Aggregate)).
+     * identity() is the value of no items, of(k, info) the value of one item and
+     * combine(a, b) the value of the items of a followed by the (larger) items of b.
+     * combine must be associative, and combine(identity(), a) == combine(a, identity()) == a.
+     * the key sum is always kept, see less and rangeSum.
+     */
+    public interface Aggregate {
+
+        public long identity();
+
+        public long of(int key, String info);
+
+        public long combine(long lower, long upper);
+
+        /** the smallest key, Long.MAX_VALUE for no items */
+        public static final Aggregate MIN_KEY = new Aggregate() {
+            public long identity() { return Long.MAX_VALUE; }
+            public long of(int key, String info) { return key; }
+            public long combine(long lower, long upper) { return Math.min(lower, upper); }
+        };
+
+        /** the largest key, Long.MIN_VALUE for no items */
+        public static final Aggregate MAX_KEY = new Aggregate() {
+            public long identity() { return Long.MIN_VALUE; }
+            public long of(int key, String info) { return key; }
+            public long combine(long lower, long upper) { return Math.max(lower, upper); }
+        };
+    }
+
+
+    /** the rebalancing rotations, named like rotateLL / rotateRR / rotateLR / rotateRL */
+    public enum Rotation { LL, RR, LR, RL }
+
+
+    /**
+     * public interface Listener
+     *
+     * Is told about the operations of the tree it is set on, see setListener.
+     * depth is the number of nodes on the path from the root to the node inserted,
+     * deleted or found (for a search which misses, the number of nodes it visited),
+     * height is the height of the tree after the operation (-1 when empty).
+     * rotated is also called for the rotations done by split and join, on the listener they pass on.
+     * the calls are made by the thread running the operation, inside it.
+     */
+    public interface Listener {
+
+        public void inserted(int rotations, int depth, int height);
+
+        public void deleted(int rotations, int depth, int height);
+
+        public void searched(int depth);
+
+        public void rotated(Rotation rotation);
+    }
+
+
+    /** the attributes of Metrics, so it can be registered as a JMX MXBean */
+    public interface MetricsMXBean {
+
+        public long getInserts();
+
+        public long getDeletes();
+
+        public long getSearches();
+
+        public long getLLRotations();
+
+        public long getRRRotations();
+
+        public long getLRRotations();
+
+        public long getRLRotations();
+
+        public double getAverageDepth();
+
+        public long getMaxDepth();
+
+        public int getHeight();
+
+        public void reset();
+    }
+
+
+    /**
+     * public class Metrics
+     *
+     * A Listener which counts the operations and rotations and keeps the average and max depth
+     * and the last seen height. it may be shared by trees running on different threads.
+     * to see it in JMX: ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("avl:name=..."))
+     */
+    public static class Metrics implements Listener, MetricsMXBean {
+
+        private final LongAdder inserts = new LongAdder();
+        private final LongAdder deletes = new LongAdder();
+        private final LongAdder searches = new LongAdder();
+        private final LongAdder[] rotations = new LongAdder[Rotation.values().length];
+        private final LongAdder depthSum = new LongAdder();
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+        private volatile int height = -1;
+
+        public Metrics() {
+            for (int j = 0; j < rotations.length; j++) {
+                rotations[j] = new LongAdder();
+            }
+        }
+
+        public void inserted(int rotations, int depth, int height) {
+            inserts.increment();
+            descended(depth);
+            this.height = height;
+        }
+
+        public void deleted(int rotations, int depth, int height) {
+            deletes.increment();
+            descended(depth);
+            this.height = height;
+        }
+
+        public void searched(int depth) {
+            searches.increment();
+            descended(depth);
+        }
+
+        public void rotated(Rotation rotation) {
+            rotations[rotation.ordinal()].increment();
+        }
+
+        private void descended(int depth) {
+            depthSum.add(depth);
+            maxDepth.accumulate(depth);
+        }
+
+        public long getInserts() {
+            return inserts.sum();
+        }
+
+        public long getDeletes() {
+            return deletes.sum();
+        }
+
+        public long getSearches() {
+            return searches.sum();
+        }
+
+        /** the number of rotations of the given kind */
+        public long getRotations(Rotation rotation) {
+            return rotations[rotation.ordinal()].sum();
+        }
+
+        public long getLLRotations() {
+            return getRotations(Rotation.LL);
+        }
+
+        public long getRRRotations() {
+            return getRotations(Rotation.RR);
+        }
+
+        public long getLRRotations() {
+            return getRotations(Rotation.LR);
+        }
+
+        public long getRLRotations() {
+            return getRotations(Rotation.RL);
+        }
+
+        /** the average depth over all inserts, deletes and searches, 0 before the first one */
+        public double getAverageDepth() {
+            long ops = getInserts() + getDeletes() + getSearches();
+            return (ops == 0) ? 0 : (double) depthSum.sum() / ops;
+        }
+
+        public long getMaxDepth() {
+            return maxDepth.get();
+        }
+
+        /** the height after the last insert or delete, -1 before the first one */
+        public int getHeight() {
+            return height;
+        }
+
+        /** starts counting again from 0 */
+        public void reset() {
+            inserts.reset();
+            deletes.reset();
+            searches.reset();
+            for (LongAdder adder : rotations) {
+                adder.reset();
+            }
+            depthSum.reset();
+            maxDepth.reset();
+            height = -1;
+        }
+    }
+
+
+    /**
+     * public class InfoDictionary
+     *
+     * The canonical instance of every distinct info it was given, so trees whose infos repeat
+     * from a small vocabulary keep one String per distinct info instead of one per item
+     * (a reference to it takes no more room in a node than an int id would).
+     * it never forgets an info, and it may be shared by trees running on different threads.
+     */
+    public static class InfoDictionary {
+
+        private final ConcurrentHashMap<String, String> canonical = new ConcurrentHashMap<>();
+
+        /** returns the canonical instance of info, info itself the first time it is seen */
+        public String intern(String info) {
+            if (info == null) {
+                return null;
+            }
+            String known = canonical.putIfAbsent(info, info);
+            return (known == null) ? info : known;
+        }
+
+        /** the number of distinct infos seen */
+        public int size() {
+            return canonical.size();
+        }
+    }
+
+
+    /**
+     * public class Cursor
+     *
+     * A position in the tree, moved forward or backward along the successor /
+     * predecessor links. all positioning methods return true if the cursor now stands
+     * on an item, and false if it ran off the tree (then key() and info() must not be used).
+     * Example: for (boolean ok = c.seek(lo); ok && c.key() <= hi; ok = c.next()) { ... }
+     */
+    public class Cursor {
+
+        private IAVLNode node = NIL;
+
+        private Cursor() {
+        }
+
+        /** returns true if the cursor stands on an item */
+        public boolean valid() {
+            return node != NIL;
+        }
+
+        /** moves to the item with the smallest key */
+        public boolean first() {
+            node = empty() ? NIL : minNode;
+            return valid();
+        }
+
+        /** moves to the item with the largest key */
+        public boolean last() {
+            node = empty() ? NIL : maxNode;
+            return valid();
+        }
+
+        /** moves to the item with the smallest key >= k */
+        public boolean seek(int k) {
+            node = ceilingNode(k);
+            return valid();
+        }
+
+        /** moves to the item with the largest key <= k, the starting point for a reverse scan */
+        public boolean seekFloor(int k) {
+            node = floorNode(k);
+            return valid();
+        }
+
+        /** moves to the item of the i'th smallest key (1 based) */
+        public boolean seekRank(int i) {
+            node = iterativeSelect(i);
+            return valid();
+        }
+
+        /** moves to the next item in key order */
+        public boolean next() {
+            if (node != NIL) {
+                node = successor(node);
+            }
+            return valid();
+        }
+
+        /** moves to the previous item in key order */
+        public boolean prev() {
+            if (node != NIL) {
+                node = predecessor(node);
+            }
+            return valid();
+        }
+
+        /** the key of the current item */
+        public int key() {
+            return node.getKey();
+        }
+
+        /** the info of the current item */
+        public String info() {
+            return node.getValue();
+        }
+    }
+
+
+    /**
+     * public class AVLNode
+     *
+     * If you wish to implement classes other than AVLTree
+     * (for example AVLNode), do it in this file, not in
+     * another file.
+     * This class can and must be modified.
+     * (It must implement IAVLNode)
+     */
+    public static class AVLNode implements IAVLNode{
+
+        private int key;
+        private String info;
+        private IAVLNode parent;
+        private IAVLNode left;
+        private IAVLNode right;
+        private int size;
+        private int height;
+        private long sum;
+
+
+        public AVLNode(int key,String info, IAVLNode parent) {
+            this.key = key;
+            this.info = info;
+            this.parent = parent;
+            this.size = 1;
+            this.height = 0;
+            this.left = NIL;
+            this.right = NIL;
+            this.sum = key;
+        }
+
+        private AVLNode() {
+            this(-1, null, null);
+            this.size = 0;
+            this.height = -1;
+            this.left = null;
+            this.right = null;
+            this.sum = 0;
+        }
+
+
+        public int getKey()
+        {
+            return this.key;
+        }
+        public String getValue()
+        {
+            return this.info;
+        }
+        public void setLeft(IAVLNode node) {
+            this.left = node;
+            if(node!= NIL & node != null){
+                node.setParent(this);
+            }
+        }
+
+        public IAVLNode getLeft()
+        {
+            return this.left;
+        }
+        public void setRight(IAVLNode node) {
+            this.right = node;
+            if(node!= NIL & node != null){
+                node.setParent(this);
+            }
+        }
+        public IAVLNode getRight()
+        {
+            return this.right;
+        }
+        public void setParent(IAVLNode node)
+        {
+            this.parent = node;
+        }
+        public IAVLNode getParent()
+        {
+            return this.parent;
+        }
+        // Returns True if this is a non-virtual AVL node.
+        // the virtual node is the shared NIL, told apart by identity so every int (-1 too) is a valid key
+        public boolean isRealNode()
+        {
+            return this != NIL;
+        }
+
+        public void setSubtreeSize(int size)
+        {
+            this.size = size;
+        }
+        public int getSubtreeSize()
+        {
+            return this.size;
+        }
+        public void setHeight(int height)
+        {
+            this.height = height;
+        }
+        public int getHeight()
+        {
+            return this.height;
+        }
+        // the low 32 bits of the sum, use getLongSum for all of it
+        public int getSum(){
+            return (int) this.sum;
+        }
+        public void setSum(int newSum){
+            this.sum = newSum;
+        }
+        public long getLongSum(){
+            return this.sum;
+        }
+        public void setLongSum(long newSum){
+            this.sum = newSum;
+        }
+        // Returns the tree's Aggregate over the node subtree (0 if the tree keeps none)
+        public long getAggregate(){
+            return 0;
+        }
+
+
+
+
+
+
+
+
+
+    }
+
+
+
+    /** node of a tree which keeps an Aggregate, other trees do not pay for the field */
+    private static final class AggregateNode extends AVLNode {
+
+        private long aggregate;
+
+        private AggregateNode(int key, String info, IAVLNode parent) {
+            super(key, info, parent);
+        }
+
+        public long getAggregate() {
+            return this.aggregate;
+        }
+    }
+
+
+
+                        /////////// Primitive specializations ///////////
+
+
+    /**
+     * IndexedAVLTree
+     *
+     * The AVL logic of this file over int node handles instead of node objects.
+     * Subclasses decide where the node fields are stored.
+     * Handle 0 (NONE) plays the role of the virtual node.
+     * keys are longs and subtree sums are kept in a long.
+     *
+     * the loops are shared by every subclass instead of being copied per type.
+     * lookups (findNode, selectNode, lessSum) are small enough to be inlined into
+     * each tree's own public method, where the class of this is known, so they stay fast.
+     * the insert and delete passes are too big for that: once more than two tree classes
+     * run them in one JVM, their accessor calls are compiled as virtual calls.
+     * AVLTreeBench engines measures this at 15-45% of insert and delete throughput
+     * (lookups are unaffected); a process that uses one kind of tree does not pay it.
+     */
+    abstract static class IndexedAVLTree {
+
+        static final int NONE = 0;
+
+        abstract int root();
+
+        abstract void setRoot(int n);
+
+        abstract long key(int n);
+
+        abstract void setKey(int n, long key);
+
+        abstract int left(int n);
+
+        abstract void setLeft(int n, int child);
+
+        abstract int right(int n);
+
+        abstract void setRight(int n, int child);
+
+        abstract int parent(int n);
+
+        abstract void setParent(int n, int parent);
+
+        abstract int height(int n);
+
+        abstract void setHeight(int n, int height);
+
+        abstract int size(int n);
+
+        abstract void setSize(int n, int size);
+
+        abstract long sum(int n);
+
+        abstract void setSum(int n, long sum);
+
+        /** returns a handle for a new node, never NONE */
+        abstract int allocate();
+
+        /** gives the handle of a node that left the tree back to the storage */
+        abstract void release(int n);
+
+
+        /**
+         * public int size()
+         *
+         * Returns the number of nodes in the tree.
+         */
+        public int size() {
+            return sizeOf(root());
+        }
+
+        /**
+         * public boolean empty()
+         *
+         * returns true if and only if the tree is empty
+         */
+        public boolean empty() {
+            return root() == NONE;
+        }
+
+        int sizeOf(int n) {
+            return n == NONE ? 0 : size(n);
+        }
+
+        int heightOf(int n) {
+            return n == NONE ? -1 : height(n);
+        }
+
+        long sumOf(int n) {
+            return n == NONE ? 0 : sum(n);
+        }
+
+        /** update size, height and sum of node n from its children */
+        void updateFields(int n) {
+            int l = left(n);
+            int r = right(n);
+            setSize(n, 1 + sizeOf(l) + sizeOf(r));
+            setHeight(n, Math.max(heightOf(l), heightOf(r)) + 1);
+            setSum(n, key(n) + sumOf(l) + sumOf(r));
+        }
+
+        /** returns the balance factor of node n */
+        int BF(int n) {
+            return heightOf(left(n)) - heightOf(right(n));
+        }
+
+        /** sets the left child of p and the parent of child */
+        void linkLeft(int p, int child) {
+            setLeft(p, child);
+            if (child != NONE) {
+                setParent(child, p);
+            }
+        }
+
+        /** sets the right child of p and the parent of child */
+        void linkRight(int p, int child) {
+            setRight(p, child);
+            if (child != NONE) {
+                setParent(child, p);
+            }
+        }
+
+        /** puts newChild in oldChild's place under parent (or as the root if parent is NONE) */
+        void replaceChild(int parent, int oldChild, int newChild) {
+            if (parent == NONE) {
+                setRoot(newChild);
+                if (newChild != NONE) {
+                    setParent(newChild, NONE);
+                }
+            }
+            else if (left(parent) == oldChild) {
+                linkLeft(parent, newChild);
+            }
+            else {
+                linkRight(parent, newChild);
+            }
+        }
+
+        /** iterative search, returns the node of key k or NONE */
+        int findNode(long k) {
+            int x = root();
+            while (x != NONE) {
+                long key = key(x);
+                if (key == k) {
+                    return x;
+                }
+                x = (key < k) ? right(x) : left(x);
+            }
+            return NONE;
+        }
+
+        /**
+         * hangs a new leaf with key k, returns its handle or NONE if k is already in the tree.
+         * the caller stores the value and then calls fixAfterInsert
+         */
+        int insertKey(long k) {
+            int prev = NONE;
+            int x = root();
+            while (x != NONE) {
+                long key = key(x);
+                if (key == k) {
+                    return NONE;
+                }
+                prev = x;
+                x = (key < k) ? right(x) : left(x);
+            }
+            int n = allocate();
+            setKey(n, k);
+            setLeft(n, NONE);
+            setRight(n, NONE);
+            setParent(n, prev);
+            setHeight(n, 0);
+            setSize(n, 1);
+            setSum(n, k);
+            if (prev == NONE) {
+                setRoot(n);
+            }
+            else if (key(prev) > k) {
+                setLeft(prev, n);
+            }
+            else {
+                setRight(prev, n);
+            }
+            return n;
+        }
+
+        /** same fix up pass as AVLTree.fixAfterInsert, returns number of rotations */
+        int fixAfterInsert(int n) {
+            long k = key(n);
+            int y = parent(n);
+            int cnt = 0;
+            boolean changed = true;
+            while (y != NONE) {
+                int p = parent(y);
+                setSize(y, size(y) + 1);
+                setSum(y, sum(y) + k);
+                if (changed) {
+                    int oldHeight = height(y);
+                    setHeight(y, Math.max(heightOf(left(y)), heightOf(right(y))) + 1);
+                    changed = (oldHeight != height(y));
+                    int bf = BF(y);
+                    if (bf > 1 || bf < -1) {
+                        cnt = rebalance(y, bf);
+                        changed = false;
+                    }
+                }
+                y = p;
+            }
+            return cnt;
+        }
+
+        /** removes node x, same single pass as AVLTree.delete. returns number of rotations */
+        int deleteNode(int x) {
+            int y = unlink(x);
+            release(x);
+            int num_of_ops = 0;
+            boolean rebalancing = true;
+            while (y != NONE) {
+                int p = parent(y);
+                int oldHeight = height(y);
+                updateFields(y);
+                if (rebalancing) {
+                    int bf = BF(y);
+                    if (bf == 2 || bf == -2) {
+                        num_of_ops += rebalance(y, bf);
+                    }
+                    else if (oldHeight == height(y)) {
+                        rebalancing = false;
+                    }
+                }
+                y = p;
+            }
+            return num_of_ops;
+        }
+
+        /** see AVLTree.unlink */
+        private int unlink(int x) {
+            int l = left(x);
+            int r = right(x);
+            if (l == NONE || r == NONE) {
+                int p = parent(x);
+                replaceChild(p, x, (l == NONE) ? r : l);
+                return p;
+            }
+            int succ = r;
+            while (left(succ) != NONE) {
+                succ = left(succ);
+            }
+            int start;
+            if (succ == r) {
+                start = succ;
+            }
+            else {
+                start = parent(succ);
+                linkLeft(start, right(succ));
+                linkRight(succ, r);
+            }
+            linkLeft(succ, l);
+            setHeight(succ, height(x));
+            replaceChild(parent(x), x, succ);
+            return start;
+        }
+
+        /** rotations for node y with balance factor bf of 2 or -2, returns number of rotations */
+        private int rebalance(int y, int bf) {
+            if (bf == 2) {
+                if (BF(left(y)) >= 0) {
+                    rotateRight(y);
+                    return 1;
+                }
+                rotateLeft(left(y));
+                rotateRight(y);
+                return 2;
+            }
+            else {
+                if (BF(right(y)) <= 0) {
+                    rotateLeft(y);
+                    return 1;
+                }
+                rotateRight(right(y));
+                rotateLeft(y);
+                return 2;
+            }
+        }
+
+        /** Rotates the subtree of x to the right (LL) */
+        private void rotateRight(int x) {
+            int y = left(x);
+            int z = parent(x);
+            linkLeft(x, right(y));
+            replaceChild(z, x, y);
+            linkRight(y, x);
+            updateFields(x);
+            updateFields(y);
+        }
+
+        /** Rotates the subtree of x to the left (RR) */
+        private void rotateLeft(int x) {
+            int y = right(x);
+            int z = parent(x);
+            linkRight(x, left(y));
+            replaceChild(z, x, y);
+            linkLeft(y, x);
+            updateFields(x);
+            updateFields(y);
+        }
+
+        /** top down select, returns the node of the i'th smallest key or NONE if i is out of range */
+        int selectNode(int i) {
+            if (i < 1 || i > size()) {
+                return NONE;
+            }
+            int x = root();
+            while (true) {
+                int left_size = sizeOf(left(x)) + 1;
+                if (left_size == i) {
+                    return x;
+                }
+                else if (i < left_size) {
+                    x = left(x);
+                }
+                else {
+                    i -= left_size;
+                    x = right(x);
+                }
+            }
+        }
+
+        /** sum of all keys which are less or equal to k */
+        long lessSum(long k) {
+            long summ = 0;
+            int x = root();
+            while (x != NONE) {
+                if (key(x) <= k) {
+                    summ += key(x) + sumOf(left(x));
+                    x = right(x);
+                }
+                else {
+                    x = left(x);
+                }
+            }
+            return summ;
+        }
+
+        /** node with the smallest key, or NONE */
+        int firstNode() {
+            int x = root();
+            if (x != NONE) {
+                while (left(x) != NONE) {
+                    x = left(x);
+                }
+            }
+            return x;
+        }
+
+        /** value(n) of every node n, in key order */
+        int[] intsInOrder(IntUnaryOperator value) {
+            int[] arr = new int[size()];
+            int n = firstNode();
+            for (int index = 0; index < arr.length; index++) {
+                arr[index] = value.applyAsInt(n);
+                n = nextNode(n);
+            }
+            return arr;
+        }
+
+        /** value(n) of every node n, in key order */
+        long[] longsInOrder(IntToLongFunction value) {
+            long[] arr = new long[size()];
+            int n = firstNode();
+            for (int index = 0; index < arr.length; index++) {
+                arr[index] = value.applyAsLong(n);
+                n = nextNode(n);
+            }
+            return arr;
+        }
+
+        /** value(n) of every node n, in key order, in arr (of length size()) */
+        <T> T[] inOrder(IntFunction<? extends T> value, T[] arr) {
+            int n = firstNode();
+            for (int index = 0; index < arr.length; index++) {
+                arr[index] = value.apply(n);
+                n = nextNode(n);
+            }
+            return arr;
+        }
+
+        /** inorder successor of node n, or NONE */
+        int nextNode(int n) {
+            if (right(n) != NONE) {
+                n = right(n);
+                while (left(n) != NONE) {
+                    n = left(n);
+                }
+                return n;
+            }
+            int p = parent(n);
+            while (p != NONE && right(p) == n) {
+                n = p;
+                p = parent(n);
+            }
+            return p;
+        }
+    }
+
+
+    /**
+     * ArrayAVLTree
+     *
+     * Stores the nodes of an IndexedAVLTree in parallel primitive arrays,
+     * a node is an index into them. Slot 0 is never used (NONE).
+     * Deleted slots are kept on a free list, chained through the left array.
+     * the keys are kept by IntArrayAVLTree / LongArrayAVLTree, in an array of their own width.
+     */
+    abstract static class ArrayAVLTree extends IndexedAVLTree {
+
+        private int[] lefts;
+        private int[] rights;
+        private int[] parents;
+        private int[] sizes;
+        private byte[] heights;
+        private long[] sums;
+        private int root = NONE;
+        private int freeHead = NONE;
+        private int used = 1;
+
+        ArrayAVLTree(int initialCapacity) {
+            grow(Math.max(initialCapacity, 1) + 1);
+        }
+
+        /** resizes all the node arrays, subclasses resize their value arrays too */
+        void grow(int capacity) {
+            lefts = (lefts == null) ? new int[capacity] : Arrays.copyOf(lefts, capacity);
+            rights = (rights == null) ? new int[capacity] : Arrays.copyOf(rights, capacity);
+            parents = (parents == null) ? new int[capacity] : Arrays.copyOf(parents, capacity);
+            sizes = (sizes == null) ? new int[capacity] : Arrays.copyOf(sizes, capacity);
+            heights = (heights == null) ? new byte[capacity] : Arrays.copyOf(heights, capacity);
+            sums = (sums == null) ? new long[capacity] : Arrays.copyOf(sums, capacity);
+        }
+
+        int allocate() {
+            if (freeHead != NONE) {
+                int n = freeHead;
+                freeHead = lefts[n];
+                return n;
+            }
+            if (used == lefts.length) {
+                if (used == Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("tree is full");
+                }
+                grow((int) Math.min(Integer.MAX_VALUE - 8, used + (used >> 1) + 1L));
+            }
+            return used++;
+        }
+
+        void release(int n) {
+            lefts[n] = freeHead;
+            freeHead = n;
+        }
+
+        int root() {
+            return root;
+        }
+
+        void setRoot(int n) {
+            this.root = n;
+        }
+
+        int left(int n) {
+            return lefts[n];
+        }
+
+        void setLeft(int n, int child) {
+            lefts[n] = child;
+        }
+
+        int right(int n) {
+            return rights[n];
+        }
+
+        void setRight(int n, int child) {
+            rights[n] = child;
+        }
+
+        int parent(int n) {
+            return parents[n];
+        }
+
+        void setParent(int n, int parent) {
+            parents[n] = parent;
+        }
+
+        int height(int n) {
+            return heights[n];
+        }
+
+        void setHeight(int n, int height) {
+            heights[n] = (byte) height;
+        }
+
+        int size(int n) {
+            return sizes[n];
+        }
+
+        void setSize(int n, int size) {
+            sizes[n] = size;
+        }
+
+        long sum(int n) {
+            return sums[n];
+        }
+
+        void setSum(int n, long sum) {
+            sums[n] = sum;
+        }
+    }
+
+
+    /** ArrayAVLTree with int keys, 4 bytes a key */
+    abstract static class IntArrayAVLTree extends ArrayAVLTree {
+
+        private int[] keys;
+
+        IntArrayAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            keys = (keys == null) ? new int[capacity] : Arrays.copyOf(keys, capacity);
+        }
+
+        long key(int n) {
+            return keys[n];
+        }
+
+        void setKey(int n, long key) {
+            keys[n] = (int) key;
+        }
+    }
+
+
+    /** ArrayAVLTree with long keys */
+    abstract static class LongArrayAVLTree extends ArrayAVLTree {
+
+        private long[] keys;
+
+        LongArrayAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            keys = (keys == null) ? new long[capacity] : Arrays.copyOf(keys, capacity);
+        }
+
+        long key(int n) {
+            return keys[n];
+        }
+
+        void setKey(int n, long key) {
+            keys[n] = key;
+        }
+    }
+
+
+    /**
+     * public class IntIntAVLTree
+     *
+     * AVL tree with distinct int keys and int values, stored in primitive arrays.
+     * keeps select and less like AVLTree, with a long prefix sum.
+     */
+    public static class IntIntAVLTree extends IntArrayAVLTree {
+
+        private int[] values;
+
+        public IntIntAVLTree() {
+            this(16);
+        }
+
+        public IntIntAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            values = (values == null) ? new int[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        /**
+         * inserts key k with value v.
+         * returns the number of rebalancing operations, or -1 if key k already exists in the tree.
+         */
+        public int insert(int k, int v) {
+            int n = insertKey(k);
+            if (n == NONE) {
+                return -1;
+            }
+            values[n] = v;
+            return fixAfterInsert(n);
+        }
+
+        /**
+         * deletes key k.
+         * returns the number of rebalancing operations, or -1 if key k was not found in the tree.
+         */
+        public int delete(int k) {
+            int n = findNode(k);
+            return (n == NONE) ? -1 : deleteNode(n);
+        }
+
+        /** returns true if and only if key k is in the tree */
+        public boolean containsKey(int k) {
+            return findNode(k) != NONE;
+        }
+
+        /** returns the value of key k, or missing if k is not in the tree */
+        public int search(int k, int missing) {
+            int n = findNode(k);
+            return (n == NONE) ? missing : values[n];
+        }
+
+        /**
+         * Returns the value of the i'th smallest key
+         * precondition: size() >= i > 0
+         */
+        public int select(int i) {
+            return values[checkedSelect(this, i)];
+        }
+
+        /**
+         * Returns the i'th smallest key
+         * precondition: size() >= i > 0
+         */
+        public int selectKey(int i) {
+            return (int) key(checkedSelect(this, i));
+        }
+
+        /** Returns the sum of all keys which are less or equal to i */
+        public long less(int i) {
+            return lessSum(i);
+        }
+
+        /** Returns a sorted array which contains all keys in the tree */
+        public int[] keysToArray() {
+            return intsInOrder(n -> (int) key(n));
+        }
+
+        /** Returns an array which contains all values in the tree, sorted by their respective keys */
+        public int[] valuesToArray() {
+            return intsInOrder(n -> values[n]);
+        }
+    }
+
+
+    /**
+     * public class LongLongAVLTree
+     *
+     * AVL tree with distinct long keys and long values, stored in primitive arrays.
+     * keeps select and less like AVLTree, less wraps around on long overflow.
+     */
+    public static class LongLongAVLTree extends LongArrayAVLTree {
+
+        private long[] values;
+
+        public LongLongAVLTree() {
+            this(16);
+        }
+
+        public LongLongAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            values = (values == null) ? new long[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        /**
+         * inserts key k with value v.
+         * returns the number of rebalancing operations, or -1 if key k already exists in the tree.
+         */
+        public int insert(long k, long v) {
+            int n = insertKey(k);
+            if (n == NONE) {
+                return -1;
+            }
+            values[n] = v;
+            return fixAfterInsert(n);
+        }
+
+        /**
+         * deletes key k.
+         * returns the number of rebalancing operations, or -1 if key k was not found in the tree.
+         */
+        public int delete(long k) {
+            int n = findNode(k);
+            return (n == NONE) ? -1 : deleteNode(n);
+        }
+
+        /** returns true if and only if key k is in the tree */
+        public boolean containsKey(long k) {
+            return findNode(k) != NONE;
+        }
+
+        /** returns the value of key k, or missing if k is not in the tree */
+        public long search(long k, long missing) {
+            int n = findNode(k);
+            return (n == NONE) ? missing : values[n];
+        }
+
+        /**
+         * Returns the value of the i'th smallest key
+         * precondition: size() >= i > 0
+         */
+        public long select(int i) {
+            return values[checkedSelect(this, i)];
+        }
+
+        /**
+         * Returns the i'th smallest key
+         * precondition: size() >= i > 0
+         */
+        public long selectKey(int i) {
+            return key(checkedSelect(this, i));
+        }
+
+        /** Returns the sum of all keys which are less or equal to i */
+        public long less(long i) {
+            return lessSum(i);
+        }
+
+        /** Returns a sorted array which contains all keys in the tree */
+        public long[] keysToArray() {
+            return longsInOrder(this::key);
+        }
+
+        /** Returns an array which contains all values in the tree, sorted by their respective keys */
+        public long[] valuesToArray() {
+            return longsInOrder(n -> values[n]);
+        }
+    }
+
+
+    /**
+     * public class LongObjAVLTree
+     *
+     * AVL tree with distinct long keys and object values, the keys and the
+     * tree structure are stored in primitive arrays.
+     * keeps select and less like AVLTree, less wraps around on long overflow.
+     */
+    public static class LongObjAVLTree<V> extends LongArrayAVLTree {
+
+        private Object[] values;
+
+        public LongObjAVLTree() {
+            this(16);
+        }
+
+        public LongObjAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            values = (values == null) ? new Object[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        void release(int n) {
+            values[n] = null;
+            super.release(n);
+        }
+
+        /**
+         * inserts key k with value v.
+         * returns the number of rebalancing operations, or -1 if key k already exists in the tree.
+         */
+        public int insert(long k, V v) {
+            int n = insertKey(k);
+            if (n == NONE) {
+                return -1;
+            }
+            values[n] = v;
+            return fixAfterInsert(n);
+        }
+
+        /**
+         * deletes key k.
+         * returns the number of rebalancing operations, or -1 if key k was not found in the tree.
+         */
+        public int delete(long k) {
+            int n = findNode(k);
+            return (n == NONE) ? -1 : deleteNode(n);
+        }
+
+        /** returns the value of key k, or null if k is not in the tree */
+        @SuppressWarnings("unchecked")
+        public V search(long k) {
+            int n = findNode(k);
+            return (n == NONE) ? null : (V) values[n];
+        }
+
+        /** Returns the value of the i'th smallest key, or null if i is out of range */
+        @SuppressWarnings("unchecked")
+        public V select(int i) {
+            int n = selectNode(i);
+            return (n == NONE) ? null : (V) values[n];
+        }
+
+        /**
+         * Returns the i'th smallest key
+         * precondition: size() >= i > 0
+         */
+        public long selectKey(int i) {
+            return key(checkedSelect(this, i));
+        }
+
+        /** Returns the sum of all keys which are less or equal to i */
+        public long less(long i) {
+            return lessSum(i);
+        }
+
+        /** Returns a sorted array which contains all keys in the tree */
+        public long[] keysToArray() {
+            return longsInOrder(this::key);
+        }
+
+        /** Returns an array which contains all values in the tree, sorted by their respective keys */
+        public Object[] valuesToArray() {
+            return inOrder(n -> values[n], new Object[size()]);
+        }
+    }
+
+
+    /**
+     * public class PooledAVLTree
+     *
+     * AVLTree with the same public operations, where the nodes live in
+     * the parallel arrays of IntArrayAVLTree instead of one AVLNode object each.
+     * only the info strings are objects, so the GC has almost nothing to mark.
+     * there are no node objects, so getRoot() and minNode() are not offered,
+     * and min() / max() descend the tree instead of keeping min/max pointers.
+     */
+    public static class PooledAVLTree extends IntArrayAVLTree {
+
+        private String[] infos;
+
+        public PooledAVLTree() {
+            this(16);
+        }
+
+        public PooledAVLTree(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        void grow(int capacity) {
+            super.grow(capacity);
+            infos = (infos == null) ? new String[capacity] : Arrays.copyOf(infos, capacity);
+        }
+
+        void release(int n) {
+            infos[n] = null;
+            super.release(n);
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            int n = findNode(k);
+            return (n == NONE) ? null : infos[n];
+        }
+
+        /** same as AVLTree.insert */
+        public int insert(int k, String i) {
+            int n = insertKey(k);
+            if (n == NONE) {
+                return -1;
+            }
+            infos[n] = i;
+            return fixAfterInsert(n);
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            int n = findNode(k);
+            return (n == NONE) ? -1 : deleteNode(n);
+        }
+
+        /** same as AVLTree.min */
+        public String min() {
+            return empty() ? null : infos[firstNode()];
+        }
+
+        /** same as AVLTree.max */
+        public String max() {
+            int x = root();
+            if (x == NONE) {
+                return null;
+            }
+            while (right(x) != NONE) {
+                x = right(x);
+            }
+            return infos[x];
+        }
+
+        /** same as AVLTree.keysToArray */
+        public int[] keysToArray() {
+            return intsInOrder(n -> (int) key(n));
+        }
+
+        /** same as AVLTree.infoToArray */
+        public String[] infoToArray() {
+            return inOrder(n -> infos[n], new String[size()]);
+        }
+
+        /** same as AVLTree.select */
+        public String select(int i) {
+            int n = selectNode(i);
+            return (n == NONE) ? null : infos[n];
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            return lessSum(i);
+        }
+    }
+
+
+    /**
+     * public class OffHeapAVLTree
+     *
+     * AVLTree with the same public operations, where node records and infos
+     * live in direct ByteBuffers outside the java heap.
+     * node records (key, size, sum, info offset, left, right, parent, height)
+     * are 40 bytes each, kept in chunks of 2^16 records, deleted records go on a free list.
+     * infos are appended as length prefixed UTF-8 to a byte arena of 4MB chunks,
+     * space of deleted infos is not reused.
+     */
+    public static class OffHeapAVLTree extends IndexedAVLTree {
+
+        static final int RECORD_BYTES = 40;
+        static final int KEY = 0;
+        static final int SIZE = 4;
+        static final int SUM = 8;
+        static final int INFO = 16;
+        static final int LEFT = 24;
+        static final int RIGHT = 28;
+        static final int PARENT = 32;
+        static final int HEIGHT = 36;
+
+        static final int CHUNK_SHIFT = 16;
+        static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+        static final int NODE_CHUNK_BYTES = RECORD_BYTES << CHUNK_SHIFT;
+        static final int VALUE_CHUNK_BYTES = 1 << 22;
+
+        private ByteBuffer[] nodeChunks = new ByteBuffer[4];
+        private ByteBuffer[] valueChunks = new ByteBuffer[4];
+        int root = NONE;
+        int freeHead = NONE;
+        int used = 1;
+        long valueTail = 0;
+
+        /** new zeroed chunk for node records [index << CHUNK_SHIFT, (index + 1) << CHUNK_SHIFT) */
+        ByteBuffer newNodeChunk(int index) {
+            return ByteBuffer.allocateDirect(NODE_CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        /** new chunk for the info arena bytes [index * VALUE_CHUNK_BYTES, (index + 1) * VALUE_CHUNK_BYTES) */
+        ByteBuffer newValueChunk(int index) {
+            return ByteBuffer.allocateDirect(VALUE_CHUNK_BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        ByteBuffer chunk(int n) {
+            return nodeChunks[n >>> CHUNK_SHIFT];
+        }
+
+        static int offset(int n) {
+            return (n & CHUNK_MASK) * RECORD_BYTES;
+        }
+
+        /** returns the node chunk with this index, creating it if needed */
+        ByteBuffer nodeChunk(int index) {
+            if (index >= nodeChunks.length) {
+                nodeChunks = Arrays.copyOf(nodeChunks, Math.max(index + 1, nodeChunks.length * 2));
+            }
+            if (nodeChunks[index] == null) {
+                nodeChunks[index] = newNodeChunk(index);
+            }
+            return nodeChunks[index];
+        }
+
+        /** returns the info chunk with this index, creating it if needed */
+        ByteBuffer valueChunk(int index) {
+            if (index >= valueChunks.length) {
+                valueChunks = Arrays.copyOf(valueChunks, Math.max(index + 1, valueChunks.length * 2));
+            }
+            if (valueChunks[index] == null) {
+                valueChunks[index] = newValueChunk(index);
+            }
+            return valueChunks[index];
+        }
+
+        int allocate() {
+            if (freeHead != NONE) {
+                int n = freeHead;
+                freeHead = left(n);
+                return n;
+            }
+            if (used == Integer.MAX_VALUE) {
+                throw new IllegalStateException("tree is full");
+            }
+            int n = used;
+            int c = n >>> CHUNK_SHIFT;
+            if (c >= nodeChunks.length || nodeChunks[c] == null) {
+                nodeChunk(c);
+            }
+            used++;
+            return n;
+        }
+
+        void release(int n) {
+            setLeft(n, freeHead);
+            freeHead = n;
+        }
+
+        /** UTF-8 bytes of info s (null for a null info), checked to fit in one arena chunk */
+        static byte[] encodeInfo(String s) {
+            if (s == null) {
+                return null;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length + 4 > VALUE_CHUNK_BYTES) {
+                throw new IllegalArgumentException("info longer than " + (VALUE_CHUNK_BYTES - 4) + " bytes");
+            }
+            return bytes;
+        }
+
+        /** appends encoded info bytes to the arena, returns their offset or -1 for null */
+        long putInfo(byte[] bytes) {
+            if (bytes == null) {
+                return -1;
+            }
+            int need = 4 + bytes.length;
+            int c = (int) (valueTail / VALUE_CHUNK_BYTES);
+            int pos = (int) (valueTail % VALUE_CHUNK_BYTES);
+            if (pos + need > VALUE_CHUNK_BYTES) {
+                c++;
+                pos = 0;
+            }
+            ByteBuffer buf = valueChunk(c);
+            buf.putInt(pos, bytes.length);
+            buf.put(pos + 4, bytes);
+            long off = (long) c * VALUE_CHUNK_BYTES + pos;
+            valueTail = off + need;
+            return off;
+        }
+
+        /** decodes the info stored at offset off of the arena */
+        String getInfo(long off) {
+            if (off < 0) {
+                return null;
+            }
+            ByteBuffer buf = valueChunks[(int) (off / VALUE_CHUNK_BYTES)];
+            int pos = (int) (off % VALUE_CHUNK_BYTES);
+            byte[] bytes = new byte[buf.getInt(pos)];
+            buf.get(pos + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int root() {
+            return root;
+        }
+
+        void setRoot(int n) {
+            this.root = n;
+        }
+
+        long key(int n) {
+            return chunk(n).getInt(offset(n) + KEY);
+        }
+
+        void setKey(int n, long key) {
+            chunk(n).putInt(offset(n) + KEY, (int) key);
+        }
+
+        int left(int n) {
+            return chunk(n).getInt(offset(n) + LEFT);
+        }
+
+        void setLeft(int n, int child) {
+            chunk(n).putInt(offset(n) + LEFT, child);
+        }
+
+        int right(int n) {
+            return chunk(n).getInt(offset(n) + RIGHT);
+        }
+
+        void setRight(int n, int child) {
+            chunk(n).putInt(offset(n) + RIGHT, child);
+        }
+
+        int parent(int n) {
+            return chunk(n).getInt(offset(n) + PARENT);
+        }
+
+        void setParent(int n, int parent) {
+            chunk(n).putInt(offset(n) + PARENT, parent);
+        }
+
+        int height(int n) {
+            return chunk(n).getInt(offset(n) + HEIGHT);
+        }
+
+        void setHeight(int n, int height) {
+            chunk(n).putInt(offset(n) + HEIGHT, height);
+        }
+
+        int size(int n) {
+            return chunk(n).getInt(offset(n) + SIZE);
+        }
+
+        void setSize(int n, int size) {
+            chunk(n).putInt(offset(n) + SIZE, size);
+        }
+
+        long sum(int n) {
+            return chunk(n).getLong(offset(n) + SUM);
+        }
+
+        void setSum(int n, long sum) {
+            chunk(n).putLong(offset(n) + SUM, sum);
+        }
+
+        private String info(int n) {
+            return getInfo(chunk(n).getLong(offset(n) + INFO));
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            int n = findNode(k);
+            return (n == NONE) ? null : info(n);
+        }
+
+        /**
+         * same as AVLTree.insert
+         * the info is written to the arena before the node is linked, and the arena
+         * tail is put back if the key is a duplicate or no record can be allocated,
+         * so a failing insert leaves the tree and the arena as they were
+         */
+        public int insert(int k, String i) {
+            long tail = valueTail;
+            long off = putInfo(encodeInfo(i));
+            int n;
+            try {
+                n = insertKey(k);
+            }
+            catch (RuntimeException | Error e) {
+                valueTail = tail;
+                throw e;
+            }
+            if (n == NONE) {
+                valueTail = tail;
+                return -1;
+            }
+            chunk(n).putLong(offset(n) + INFO, off);
+            return fixAfterInsert(n);
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            int n = findNode(k);
+            return (n == NONE) ? -1 : deleteNode(n);
+        }
+
+        /** same as AVLTree.min */
+        public String min() {
+            return empty() ? null : info(firstNode());
+        }
+
+        /** same as AVLTree.max */
+        public String max() {
+            int x = root();
+            if (x == NONE) {
+                return null;
+            }
+            while (right(x) != NONE) {
+                x = right(x);
+            }
+            return info(x);
+        }
+
+        /** same as AVLTree.keysToArray */
+        public int[] keysToArray() {
+            return intsInOrder(n -> (int) key(n));
+        }
+
+        /** same as AVLTree.infoToArray */
+        public String[] infoToArray() {
+            return inOrder(this::info, new String[size()]);
+        }
+
+        /** same as AVLTree.select */
+        public String select(int i) {
+            int n = selectNode(i);
+            return (n == NONE) ? null : info(n);
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            return lessSum(i);
+        }
+    }
+
+
+    /**
+     * public class MappedAVLTree
+     *
+     * OffHeapAVLTree whose chunks are mapped from files, so the tree is opened
+     * again after a restart without re-inserting anything.
+     * file: a 64KB header followed by the node chunks, file + ".info": the info arena.
+     * header: magic, version, state, root, free list head, used records, arena tail, CRC32,
+     * then the undo journal of the update in progress.
+     * every insert/delete copies the header fields to the journal and marks the header UPDATING
+     * before it touches the tree, and saves the old image of each record in the journal
+     * before its first change. The new header is written with CLEAN only after the update is done.
+     * The mapped pages outlive a crash of the process, so opening a file whose header is
+     * still UPDATING puts the journaled records and fields back, i.e. rolls the update back.
+     * if an insert/delete throws, the file stays UPDATING and the tree refuses further updates
+     * until it is opened again.
+     * sync() forces everything to the disk; against a crash of the machine only
+     * a file that was synced and not modified since is safe.
+     */
+    public static class MappedAVLTree extends OffHeapAVLTree implements AutoCloseable {
+
+        static final long MAGIC = 0x41564c5452454531L;
+        static final int VERSION = 1;
+        static final int HEADER_BYTES = 1 << 16;
+        static final int CLEAN = 0;
+        static final int UPDATING = 1;
+
+        private static final int H_MAGIC = 0;
+        private static final int H_VERSION = 8;
+        private static final int H_STATE = 12;
+        private static final int H_ROOT = 16;
+        private static final int H_FREE = 20;
+        private static final int H_USED = 24;
+        private static final int H_TAIL = 32;
+        private static final int H_CRC = 40;
+
+        // undo journal: the header fields before the update, and (record number, old record) entries
+        private static final int U_ROOT = 48;
+        private static final int U_FREE = 52;
+        private static final int U_USED = 56;
+        private static final int U_TAIL = 64;
+        private static final int U_COUNT = 72;
+        private static final int U_ENTRIES = 128;
+        private static final int U_ENTRY_BYTES = 8 + RECORD_BYTES;
+        private static final int U_MAX = (HEADER_BYTES - U_ENTRIES) / U_ENTRY_BYTES;
+
+        private final FileChannel nodes;
+        private final FileChannel infos;
+        private final MappedByteBuffer header;
+        private final List<MappedByteBuffer> mapped = new ArrayList<>();
+
+        // records already journaled by the update in progress: slot holds n + 1 when stamp == epoch
+        private final int[] journaled = new int[Integer.highestOneBit(U_MAX) << 2];
+        private final int[] stamps = new int[journaled.length];
+        private int epoch;
+        private int undoCount;
+        private boolean updating;
+        private boolean failed;
+
+        /**
+         * opens the tree stored in file, or creates an empty one if file does not exist or is empty.
+         * a file left in the middle of an update is rolled back.
+         * throws IOException if the file is not a tree file or is damaged
+         */
+        public MappedAVLTree(Path file) throws IOException {
+            Path infoFile = file.resolveSibling(file.getFileName() + ".info");
+            FileChannel nodes = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel infos = null;
+            try {
+                infos = FileChannel.open(infoFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.nodes = nodes;
+                this.infos = infos;
+                boolean fresh = nodes.size() == 0;
+                this.header = nodes.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (fresh) {
+                    header.putLong(H_MAGIC, MAGIC);
+                    header.putInt(H_VERSION, VERSION);
+                    writeHeader(CLEAN);
+                    sync();
+                }
+                else {
+                    readHeader(file);
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    nodes.close();
+                    if (infos != null) {
+                        infos.close();
+                    }
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+
+        private void readHeader(Path file) throws IOException {
+            if (header.getLong(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION) {
+                throw new IOException(file + " is not an AVL tree file");
+            }
+            int state = header.getInt(H_STATE);
+            if (state == UPDATING) {
+                undoCount = header.getInt(U_COUNT);
+                if (undoCount < 0 || undoCount > U_MAX) {
+                    throw new IOException(file + " has a damaged undo journal");
+                }
+                root = header.getInt(U_ROOT);
+                freeHead = header.getInt(U_FREE);
+                used = header.getInt(U_USED);
+                valueTail = header.getLong(U_TAIL);
+            }
+            else if (state == CLEAN && header.getLong(H_CRC) == headerChecksum()) {
+                root = header.getInt(H_ROOT);
+                freeHead = header.getInt(H_FREE);
+                used = header.getInt(H_USED);
+                valueTail = header.getLong(H_TAIL);
+            }
+            else {
+                throw new IOException(file + " has a damaged header");
+            }
+            for (int c = 0; used > 1 && c <= (used - 1) >>> CHUNK_SHIFT; c++) {
+                nodeChunk(c);
+            }
+            for (int c = 0; valueTail > 0 && c <= (valueTail - 1) / VALUE_CHUNK_BYTES; c++) {
+                valueChunk(c);
+            }
+            if (state == UPDATING) {
+                rollback();
+            }
+        }
+
+        /** puts the journaled records back (the header fields are already back) and marks the file CLEAN */
+        private void rollback() {
+            for (int e = 0; e < undoCount; e++) {
+                int pos = U_ENTRIES + e * U_ENTRY_BYTES;
+                int n = header.getInt(pos);
+                if (n < used) { // records past the old end were not in the tree
+                    ByteBuffer buf = chunk(n);
+                    for (int b = 0; b < RECORD_BYTES; b += 8) {
+                        buf.putLong(offset(n) + b, header.getLong(pos + 8 + b));
+                    }
+                }
+            }
+            writeHeader(CLEAN);
+            sync();
+        }
+
+        /** CRC32 of the header fields, without the state */
+        private long headerChecksum() {
+            CRC32 crc = new CRC32();
+            ByteBuffer fields = header.duplicate();
+            fields.position(0).limit(H_STATE);
+            crc.update(fields);
+            fields.limit(H_CRC).position(H_STATE + 4);
+            crc.update(fields);
+            return crc.getValue();
+        }
+
+        /** writes the fields and their checksum, the state last */
+        private void writeHeader(int state) {
+            header.putInt(H_ROOT, root);
+            header.putInt(H_FREE, freeHead);
+            header.putInt(H_USED, used);
+            header.putLong(H_TAIL, valueTail);
+            header.putLong(H_CRC, headerChecksum());
+            header.putInt(H_STATE, state);
+        }
+
+        /** journals the header fields and marks the file UPDATING */
+        private void beginUpdate() {
+            if (failed) {
+                throw new IllegalStateException("an earlier update failed, open the file again to roll it back");
+            }
+            header.putInt(U_ROOT, root);
+            header.putInt(U_FREE, freeHead);
+            header.putInt(U_USED, used);
+            header.putLong(U_TAIL, valueTail);
+            header.putInt(U_COUNT, 0);
+            header.putInt(H_STATE, UPDATING);
+            undoCount = 0;
+            epoch++;
+            updating = true;
+        }
+
+        private void endUpdate(boolean done) {
+            updating = false;
+            if (done) {
+                writeHeader(CLEAN);
+            }
+            else {
+                failed = true;
+            }
+        }
+
+        /** saves the old image of record n to the journal, once per update */
+        private void journal(int n) {
+            if (!updating) {
+                return;
+            }
+            int mask = journaled.length - 1;
+            int slot = (n * 0x9E3779B9) >>> 16 & mask;
+            while (stamps[slot] == epoch) {
+                if (journaled[slot] == n + 1) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (undoCount == U_MAX) {
+                throw new IllegalStateException("undo journal is full");
+            }
+            stamps[slot] = epoch;
+            journaled[slot] = n + 1;
+            int pos = U_ENTRIES + undoCount * U_ENTRY_BYTES;
+            ByteBuffer buf = chunk(n);
+            header.putInt(pos, n);
+            for (int b = 0; b < RECORD_BYTES; b += 8) {
+                header.putLong(pos + 8 + b, buf.getLong(offset(n) + b));
+            }
+            header.putInt(U_COUNT, ++undoCount);
+        }
+
+        private MappedByteBuffer map(FileChannel channel, long position, int bytes) {
+            try {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                mapped.add(buf);
+                return buf;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        ByteBuffer newNodeChunk(int index) {
+            return map(nodes, HEADER_BYTES + (long) index * NODE_CHUNK_BYTES, NODE_CHUNK_BYTES);
+        }
+
+        ByteBuffer newValueChunk(int index) {
+            return map(infos, (long) index * VALUE_CHUNK_BYTES, VALUE_CHUNK_BYTES);
+        }
+
+        void setKey(int n, long key) {
+            journal(n);
+            super.setKey(n, key);
+        }
+
+        void setLeft(int n, int child) {
+            journal(n);
+            super.setLeft(n, child);
+        }
+
+        void setRight(int n, int child) {
+            journal(n);
+            super.setRight(n, child);
+        }
+
+        void setParent(int n, int parent) {
+            journal(n);
+            super.setParent(n, parent);
+        }
+
+        void setHeight(int n, int height) {
+            journal(n);
+            super.setHeight(n, height);
+        }
+
+        void setSize(int n, int size) {
+            journal(n);
+            super.setSize(n, size);
+        }
+
+        void setSum(int n, long sum) {
+            journal(n);
+            super.setSum(n, sum);
+        }
+
+        /** same as AVLTree.insert */
+        public int insert(int k, String i) {
+            beginUpdate();
+            boolean done = false;
+            try {
+                int result = super.insert(k, i);
+                done = true;
+                return result;
+            } finally {
+                endUpdate(done);
+            }
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            beginUpdate();
+            boolean done = false;
+            try {
+                int result = super.delete(k);
+                done = true;
+                return result;
+            } finally {
+                endUpdate(done);
+            }
+        }
+
+        /** forces the node and info chunks, and then the header, to the disk */
+        public void sync() {
+            for (MappedByteBuffer buf : mapped) {
+                buf.force();
+            }
+            header.force();
+        }
+
+        /** syncs and closes the files, the tree must not be used afterwards */
+        public void close() throws IOException {
+            sync();
+            nodes.close();
+            infos.close();
+        }
+    }
+
+
+    /** select for the primitive trees, which have no null to return for a bad rank */
+    private static int checkedSelect(IndexedAVLTree tree, int i) {
+        int n = tree.selectNode(i);
+        if (n == IndexedAVLTree.NONE) {
+            throw new IndexOutOfBoundsException("rank " + i + " out of range 1.." + tree.size());
+        }
+        return n;
+    }
+
+
+
+                        /////////// Concurrent trees ///////////
+
+
+    /**
+     * public class StampedAVLTree
+     *
+     * Thread safe AVLTree guarded by one StampedLock.
+     * search, select, less, min, max and size first run without any lock,
+     * under an optimistic stamp, and keep their result only if no writer
+     * came in meanwhile (validate). a reader never blocks a writer that way.
+     * a failed or inconsistent optimistic read is run again under the read lock.
+     * insert and delete take the write lock, so writers run one at a time.
+     * per node versions and locks (Bronson et al.) would not let them run side by side:
+     * every insert/delete changes the subtree size and sum of each node up to the root,
+     * so all writers lock the root anyway. ShardedAVLTree gives parallel writers.
+     */
+    public static class StampedAVLTree {
+
+        // deeper than any AVL tree of 2^31 nodes (height < 45), only a torn read goes further
+        private static final int MAX_DEPTH = 64;
+
+        private final AVLTree tree;
+        private final StampedLock lock = new StampedLock();
+
+        public StampedAVLTree() {
+            this(new AVLTree());
+        }
+
+        /** wraps tree, which must not be used directly afterwards */
+        private StampedAVLTree(AVLTree tree) {
+            this.tree = tree;
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    String v = findNode(tree.root, k, MAX_DEPTH).getValue();
+                    if (lock.validate(stamp)) {
+                        return v;
+                    }
+                } catch (RuntimeException e) {
+                    // read a node in the middle of a rebalance, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return tree.search(k);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.select */
+        public String select(int i) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    String v = selectNode(tree.root, i, MAX_DEPTH).getValue();
+                    if (lock.validate(stamp)) {
+                        return v;
+                    }
+                } catch (RuntimeException e) {
+                    // read a node in the middle of a rebalance, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return selectNode(tree.root, i, Integer.MAX_VALUE).getValue();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    long summ = lessSum(tree.root, i, MAX_DEPTH);
+                    if (lock.validate(stamp)) {
+                        return summ;
+                    }
+                } catch (RuntimeException e) {
+                    // read a node in the middle of a rebalance, retry under the read lock
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return lessSum(tree.root, i, Integer.MAX_VALUE);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.min */
+        public String min() {
+            long stamp = lock.tryOptimisticRead();
+            IAVLNode x = tree.minNode;
+            String v = (x == null) ? null : x.getValue();
+            if (lock.validate(stamp)) {
+                return v;
+            }
+            stamp = lock.readLock();
+            try {
+                return tree.min();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.max */
+        public String max() {
+            long stamp = lock.tryOptimisticRead();
+            IAVLNode x = tree.maxNode;
+            String v = (x == null) ? null : x.getValue();
+            if (lock.validate(stamp)) {
+                return v;
+            }
+            stamp = lock.readLock();
+            try {
+                return tree.max();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.size */
+        public int size() {
+            long stamp = lock.tryOptimisticRead();
+            int size = tree.root.getSubtreeSize();
+            if (lock.validate(stamp)) {
+                return size;
+            }
+            stamp = lock.readLock();
+            try {
+                return tree.size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.empty */
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /** same as AVLTree.insert */
+        public int insert(int k, String i) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.insert(k, i);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.delete(k);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /** same as AVLTree.insertAll, the batch is applied under one write lock */
+        public int insertAll(int[] keys, String[] infos) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.insertAll(keys, infos);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /** same as AVLTree.deleteAll, the batch is applied under one write lock */
+        public int deleteAll(int[] keys) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.deleteAll(keys);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /** same as AVLTree.keysToArray, under the read lock */
+        public int[] keysToArray() {
+            long stamp = lock.readLock();
+            try {
+                return tree.keysToArray();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** same as AVLTree.infoToArray, under the read lock */
+        public String[] infoToArray() {
+            long stamp = lock.readLock();
+            try {
+                return tree.infoToArray();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** search descent of at most maxDepth levels, returns the node of k or NIL */
+        private static IAVLNode findNode(IAVLNode x, int k, int maxDepth) {
+            for (int depth = 0; x != NIL; depth++) {
+                if (depth > maxDepth) {
+                    throw new IllegalStateException("descent deeper than " + maxDepth);
+                }
+                int key = x.getKey();
+                if (key == k) {
+                    return x;
+                }
+                x = (key < k) ? x.getRight() : x.getLeft();
+            }
+            return NIL;
+        }
+
+        /** top down select of at most maxDepth levels, returns the node of rank i or NIL */
+        private static IAVLNode selectNode(IAVLNode x, int i, int maxDepth) {
+            if (i < 1 || i > x.getSubtreeSize()) {
+                return NIL;
+            }
+            for (int depth = 0; ; depth++) {
+                if (depth > maxDepth) {
+                    throw new IllegalStateException("descent deeper than " + maxDepth);
+                }
+                int left_size = x.getLeft().getSubtreeSize() + 1;
+                if (left_size == i) {
+                    return x;
+                } else if (i < left_size) {
+                    x = x.getLeft();
+                } else {
+                    i -= left_size;
+                    x = x.getRight();
+                }
+            }
+        }
+
+        /** sum of the keys <= k with a descent of at most maxDepth levels */
+        private static long lessSum(IAVLNode x, int k, int maxDepth) {
+            long summ = 0;
+            for (int depth = 0; x != NIL; depth++) {
+                if (depth > maxDepth) {
+                    throw new IllegalStateException("descent deeper than " + maxDepth);
+                }
+                if (x.getKey() <= k) {
+                    summ += x.getKey() + longSum(x.getLeft());
+                    x = x.getRight();
+                } else {
+                    x = x.getLeft();
+                }
+            }
+            return summ;
+        }
+    }
+
+
+    /**
+     * public class ShardedAVLTree
+     *
+     * Range partitioned index: the int key space is cut into ranges, each one held
+     * by its own StampedAVLTree (a shard), so writers of different ranges never wait
+     * for each other. select and less add up the sizes and sums of the shards before
+     * the one they end in. they see every shard consistent, but not all of them at one
+     * instant while writers are running.
+     * when a shard grows past twice a neighbour (plus REBALANCE_SLACK), the two are joined
+     * and split again at their median (O(log n)), which moves the boundary between them.
+     */
+    public static class ShardedAVLTree {
+
+        private static final int REBALANCE_SLACK = 1024;
+
+        /** a shard holds the keys from lo up to the next shard's lo */
+        private static final class Shard {
+            private final StampedAVLTree index;
+            private final int lo;
+            // set once the shard's items moved to a new layout, operations that see it retry
+            private volatile boolean retired;
+
+            private Shard(StampedAVLTree index, int lo) {
+                this.index = index;
+                this.lo = lo;
+            }
+        }
+
+        // sorted by lo, replaced as a whole on rebalance
+        private volatile Shard[] shards;
+        private final ReentrantLock rebalanceLock = new ReentrantLock();
+
+        /** an index of the given number of shards, starting with equal ranges of the int key space */
+        public ShardedAVLTree(int shardCount) {
+            if (shardCount < 1) {
+                throw new IllegalArgumentException("shardCount must be positive");
+            }
+            Shard[] layout = new Shard[shardCount];
+            long width = (1L << 32) / shardCount;
+            for (int j = 0; j < shardCount; j++) {
+                layout[j] = new Shard(new StampedAVLTree(), (int) (Integer.MIN_VALUE + j * width));
+            }
+            this.shards = layout;
+        }
+
+        /** same as AVLTree.insert */
+        public int insert(int k, String i) {
+            while (true) {
+                Shard shard = shardFor(k);
+                int result;
+                long stamp = shard.index.lock.writeLock();
+                try {
+                    if (shard.retired) {
+                        continue;
+                    }
+                    result = shard.index.tree.insert(k, i);
+                } finally {
+                    shard.index.lock.unlockWrite(stamp);
+                }
+                if (result != -1) {
+                    maybeRebalance(shard);
+                }
+                return result;
+            }
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            while (true) {
+                Shard shard = shardFor(k);
+                long stamp = shard.index.lock.writeLock();
+                try {
+                    if (!shard.retired) {
+                        return shard.index.tree.delete(k);
+                    }
+                } finally {
+                    shard.index.lock.unlockWrite(stamp);
+                }
+            }
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            while (true) {
+                Shard shard = shardFor(k);
+                String v = shard.index.search(k);
+                if (!shard.retired) {
+                    return v;
+                }
+            }
+        }
+
+        /** same as AVLTree.size */
+        public int size() {
+            retry:
+            while (true) {
+                int size = 0;
+                for (Shard shard : shards) {
+                    size += shard.index.size();
+                    if (shard.retired) {
+                        continue retry;
+                    }
+                }
+                return size;
+            }
+        }
+
+        /** same as AVLTree.empty */
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /**
+         * same as AVLTree.select. the size of each shard and the select in it are read
+         * under one stamp, a delete in between would leave a rank past the shard's end
+         */
+        public String select(int i) {
+            retry:
+            while (true) {
+                int rank = i;
+                for (Shard shard : shards) {
+                    StampedAVLTree index = shard.index;
+                    int size = 0;
+                    String v = null;
+                    long stamp = index.lock.tryOptimisticRead();
+                    try {
+                        size = index.tree.root.getSubtreeSize();
+                        v = (rank <= size) ? StampedAVLTree.selectNode(index.tree.root, rank, StampedAVLTree.MAX_DEPTH).getValue() : null;
+                    } catch (RuntimeException e) {
+                        stamp = 0; // read a node in the middle of a rebalance, retry under the read lock
+                    }
+                    if (!index.lock.validate(stamp)) {
+                        stamp = index.lock.readLock();
+                        try {
+                            size = index.tree.size();
+                            v = (rank <= size) ? index.tree.select(rank) : null;
+                        } finally {
+                            index.lock.unlockRead(stamp);
+                        }
+                    }
+                    if (shard.retired) {
+                        continue retry;
+                    }
+                    if (rank <= size) {
+                        return v;
+                    }
+                    rank -= size;
+                }
+                return null;
+            }
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            retry:
+            while (true) {
+                Shard[] layout = shards;
+                long summ = 0;
+                for (int j = 0; j < layout.length && layout[j].lo <= i; j++) {
+                    boolean whole = j + 1 < layout.length && layout[j + 1].lo <= i;
+                    summ += layout[j].index.less(whole ? Integer.MAX_VALUE : i);
+                    if (layout[j].retired) {
+                        continue retry;
+                    }
+                }
+                return summ;
+            }
+        }
+
+        private Shard shardFor(int k) {
+            Shard[] layout = shards;
+            int lo = 0;
+            int hi = layout.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (layout[mid].lo <= k) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return layout[lo];
+        }
+
+        /** after an insert into shard, evens it out with a neighbour that is much smaller */
+        private void maybeRebalance(Shard shard) {
+            int size = shard.index.size();
+            if (size <= REBALANCE_SLACK) {
+                return;
+            }
+            Shard[] layout = shards;
+            int j = 0;
+            while (j < layout.length && layout[j] != shard) {
+                j++;
+            }
+            if (j == layout.length) {
+                return;
+            }
+            int leftSize = (j > 0) ? layout[j - 1].index.size() : Integer.MAX_VALUE;
+            int rightSize = (j + 1 < layout.length) ? layout[j + 1].index.size() : Integer.MAX_VALUE;
+            int pair = (leftSize <= rightSize) ? j - 1 : j;
+            if (size <= 2L * Math.min(leftSize, rightSize) + REBALANCE_SLACK || !rebalanceLock.tryLock()) {
+                return;
+            }
+            try {
+                if (shards == layout) {
+                    rebalance(layout, pair);
+                }
+            } finally {
+                rebalanceLock.unlock();
+            }
+        }
+
+        /** joins shards j and j + 1 of layout and splits them again at their median */
+        private void rebalance(Shard[] layout, int j) {
+            Shard a = layout[j];
+            Shard b = layout[j + 1];
+            long stampA = a.index.lock.writeLock();
+            long stampB = b.index.lock.writeLock();
+            try {
+                AVLTree lower = a.index.tree;
+                AVLTree upper = b.index.tree;
+                int total = lower.size() + upper.size();
+                AVLTree all;
+                if (upper.empty()) {
+                    all = lower;
+                } else if (lower.empty()) {
+                    all = upper;
+                } else {
+                    IAVLNode first = upper.minNode;
+                    int k = first.getKey();
+                    String v = first.getValue();
+                    upper.delete(k);
+                    all = AVLTree.join(lower, k, v, upper);
+                }
+                IAVLNode median = StampedAVLTree.selectNode(all.root, total / 2 + 1, Integer.MAX_VALUE);
+                int m = median.getKey();
+                String mv = median.getValue();
+                AVLTree[] parts = all.split(m);
+                parts[1].insert(m, mv);
+                Shard[] next = layout.clone();
+                next[j] = new Shard(new StampedAVLTree(parts[0]), a.lo);
+                next[j + 1] = new Shard(new StampedAVLTree(parts[1]), m);
+                // the new layout must be visible before anyone is told to retry
+                shards = next;
+                a.retired = true;
+                b.retired = true;
+            } finally {
+                b.index.lock.unlockWrite(stampB);
+                a.index.lock.unlockWrite(stampA);
+            }
+        }
+    }
+
+
+    /**
+     * public class PersistentAVLTree
+     *
+     * AVL tree of immutable nodes: insert and delete copy the O(log n) nodes on their
+     * path and publish a new root, older roots stay valid as they are.
+     * snapshot() returns the current version in O(1). readers (of the tree or of a snapshot)
+     * take no lock and never block the writers, writers are serialized on the tree.
+     * versions nobody references any more are left to the GC.
+     * nodes have no parent pointers, which path copying could not keep up to date.
+     */
+    public static class PersistentAVLTree {
+
+        private static final class Node {
+            private final int key;
+            private final String info;
+            private final Node left;
+            private final Node right;
+            private final int height;
+            private final int size;
+            private final long sum;
+
+            private Node(int key, String info, Node left, Node right) {
+                this.key = key;
+                this.info = info;
+                this.left = left;
+                this.right = right;
+                this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+                this.size = 1 + sizeOf(left) + sizeOf(right);
+                this.sum = key + sumOf(left) + sumOf(right);
+            }
+        }
+
+        private volatile Node root;
+        // rotations of the running insert / delete, only touched by the writer
+        private int rotations;
+
+        /** same as AVLTree.insert */
+        public synchronized int insert(int k, String i) {
+            rotations = 0;
+            Node newRoot = insert(root, k, i);
+            if (newRoot == root) {
+                return -1;
+            }
+            root = newRoot;
+            return rotations;
+        }
+
+        /** same as AVLTree.delete */
+        public synchronized int delete(int k) {
+            rotations = 0;
+            Node newRoot = delete(root, k);
+            if (newRoot == root) {
+                return -1;
+            }
+            root = newRoot;
+            return rotations;
+        }
+
+        /** returns the current version of the tree, in O(1) */
+        public Snapshot snapshot() {
+            return new Snapshot(root);
+        }
+
+        /** same as AVLTree.search, on the current version */
+        public String search(int k) {
+            return search(root, k);
+        }
+
+        /** same as AVLTree.select, on the current version */
+        public String select(int i) {
+            return select(root, i);
+        }
+
+        /** same as AVLTree.less, on the current version */
+        public long less(int i) {
+            return less(root, i);
+        }
+
+        /** same as AVLTree.size, on the current version */
+        public int size() {
+            return sizeOf(root);
+        }
+
+        /** same as AVLTree.empty, on the current version */
+        public boolean empty() {
+            return root == null;
+        }
+
+        /**
+         * public static class Snapshot
+         *
+         * An immutable version of a PersistentAVLTree.
+         */
+        public static final class Snapshot {
+
+            private final Node root;
+
+            private Snapshot(Node root) {
+                this.root = root;
+            }
+
+            /** same as AVLTree.search */
+            public String search(int k) {
+                return PersistentAVLTree.search(root, k);
+            }
+
+            /** same as AVLTree.select */
+            public String select(int i) {
+                return PersistentAVLTree.select(root, i);
+            }
+
+            /** same as AVLTree.less */
+            public long less(int i) {
+                return PersistentAVLTree.less(root, i);
+            }
+
+            /** same as AVLTree.min */
+            public String min() {
+                Node x = root;
+                if (x == null) {
+                    return null;
+                }
+                while (x.left != null) {
+                    x = x.left;
+                }
+                return x.info;
+            }
+
+            /** same as AVLTree.max */
+            public String max() {
+                Node x = root;
+                if (x == null) {
+                    return null;
+                }
+                while (x.right != null) {
+                    x = x.right;
+                }
+                return x.info;
+            }
+
+            /** same as AVLTree.size */
+            public int size() {
+                return sizeOf(root);
+            }
+
+            /** same as AVLTree.empty */
+            public boolean empty() {
+                return root == null;
+            }
+
+            /** same as AVLTree.keysToArray */
+            public int[] keysToArray() {
+                int[] arr = new int[sizeOf(root)];
+                int index = 0;
+                for (Node x : inorder(root)) {
+                    arr[index++] = x.key;
+                }
+                return arr;
+            }
+
+            /** same as AVLTree.infoToArray */
+            public String[] infoToArray() {
+                String[] arr = new String[sizeOf(root)];
+                int index = 0;
+                for (Node x : inorder(root)) {
+                    arr[index++] = x.info;
+                }
+                return arr;
+            }
+        }
+
+        private static int heightOf(Node x) {
+            return (x == null) ? -1 : x.height;
+        }
+
+        private static int sizeOf(Node x) {
+            return (x == null) ? 0 : x.size;
+        }
+
+        private static long sumOf(Node x) {
+            return (x == null) ? 0 : x.sum;
+        }
+
+        private static int BF(Node x) {
+            return heightOf(x.left) - heightOf(x.right);
+        }
+
+        /** path copying insert, returns x itself if k is already in its subtree */
+        private Node insert(Node x, int k, String i) {
+            if (x == null) {
+                return new Node(k, i, null, null);
+            }
+            if (k == x.key) {
+                return x;
+            }
+            if (k < x.key) {
+                Node left = insert(x.left, k, i);
+                return (left == x.left) ? x : balance(new Node(x.key, x.info, left, x.right));
+            } else {
+                Node right = insert(x.right, k, i);
+                return (right == x.right) ? x : balance(new Node(x.key, x.info, x.left, right));
+            }
+        }
+
+        /** path copying delete, returns x itself if k is not in its subtree */
+        private Node delete(Node x, int k) {
+            if (x == null) {
+                return null;
+            }
+            if (k < x.key) {
+                Node left = delete(x.left, k);
+                return (left == x.left) ? x : balance(new Node(x.key, x.info, left, x.right));
+            }
+            if (k > x.key) {
+                Node right = delete(x.right, k);
+                return (right == x.right) ? x : balance(new Node(x.key, x.info, x.left, right));
+            }
+            if (x.left == null) {
+                return x.right;
+            }
+            if (x.right == null) {
+                return x.left;
+            }
+            Node succ = x.right;
+            while (succ.left != null) {
+                succ = succ.left;
+            }
+            return balance(new Node(succ.key, succ.info, x.left, deleteMin(x.right)));
+        }
+
+        private Node deleteMin(Node x) {
+            if (x.left == null) {
+                return x.right;
+            }
+            return balance(new Node(x.key, x.info, deleteMin(x.left), x.right));
+        }
+
+        /** rebalances a fresh node whose balance factor may be 2 or -2, counting rotations */
+        private Node balance(Node x) {
+            int bf = BF(x);
+            if (bf == 2) {
+                if (BF(x.left) >= 0) {
+                    rotations += 1;
+                    return rotateRight(x.key, x.info, x.left, x.right);
+                }
+                rotations += 2;
+                Node left = x.left;
+                return rotateRight(x.key, x.info, rotateLeft(left.key, left.info, left.left, left.right), x.right);
+            }
+            if (bf == -2) {
+                if (BF(x.right) <= 0) {
+                    rotations += 1;
+                    return rotateLeft(x.key, x.info, x.left, x.right);
+                }
+                rotations += 2;
+                Node right = x.right;
+                return rotateLeft(x.key, x.info, x.left, rotateRight(right.key, right.info, right.left, right.right));
+            }
+            return x;
+        }
+
+        /** the right rotation of node (key, info, left, right), as new nodes */
+        private static Node rotateRight(int key, String info, Node left, Node right) {
+            return new Node(left.key, left.info, left.left, new Node(key, info, left.right, right));
+        }
+
+        /** the left rotation of node (key, info, left, right), as new nodes */
+        private static Node rotateLeft(int key, String info, Node left, Node right) {
+            return new Node(right.key, right.info, new Node(key, info, left, right.left), right.right);
+        }
+
+        private static String search(Node x, int k) {
+            while (x != null) {
+                if (x.key == k) {
+                    return x.info;
+                }
+                x = (x.key < k) ? x.right : x.left;
+            }
+            return null;
+        }
+
+        private static String select(Node x, int i) {
+            if (i < 1 || i > sizeOf(x)) {
+                return null;
+            }
+            while (true) {
+                int left_size = sizeOf(x.left) + 1;
+                if (left_size == i) {
+                    return x.info;
+                } else if (i < left_size) {
+                    x = x.left;
+                } else {
+                    i -= left_size;
+                    x = x.right;
+                }
+            }
+        }
+
+        private static long less(Node x, int k) {
+            long summ = 0;
+            while (x != null) {
+                if (x.key <= k) {
+                    summ += x.key + sumOf(x.left);
+                    x = x.right;
+                } else {
+                    x = x.left;
+                }
+            }
+            return summ;
+        }
+
+        /** the nodes of the subtree of x in key order, using a stack as deep as the tree */
+        private static List<Node> inorder(Node x) {
+            List<Node> nodes = new ArrayList<>(sizeOf(x));
+            Node[] stack = new Node[heightOf(x) + 1];
+            int top = 0;
+            while (x != null || top > 0) {
+                while (x != null) {
+                    stack[top++] = x;
+                    x = x.left;
+                }
+                x = stack[--top];
+                nodes.add(x);
+                x = x.right;
+            }
+            return nodes;
+        }
+    }
+
+
+
+                        /////////// Wide node tree ///////////
+
+
+    /**
+     * public class WideNodeTree
+     *
+     * A counted B+ tree with the same public operations as AVLTree.
+     * a node holds up to MAX sorted keys (a leaf, with their infos) or up to MAX children
+     * (an inner node, with the number and the key sum of the items under each child),
+     * so a search reads about log_64(n) nodes of a few cache lines each, instead of
+     * log_2(n) AVLNodes scattered over the heap. select and less add up the counts and
+     * sums of the children left of the descent, like size and sum do in AVLTree.
+     * a full node is split in two. deletes are relaxed: an emptied node is dropped,
+     * and a node under MIN entries is merged into a neighbour if both fit in one node.
+     * there are no rotations, so insert and delete return 0 (or -1 like AVLTree).
+     */
+    public static class WideNodeTree {
+
+        static final int MAX = 64;
+        static final int MIN = MAX / 4;
+
+        /** a leaf (children == null) or an inner node, the arrays have room for one entry too many */
+        private static final class Node {
+            private int n;
+            // leaf: the keys. inner node: keys[j] (j > 0) is the smallest key that may be under children[j],
+            // keys[0] is only used to hand the separator of a new right node to its parent
+            private final int[] keys = new int[MAX + 1];
+            private final String[] infos;
+            private final Node[] children;
+            private final int[] counts;
+            private final long[] sums;
+
+            private Node(boolean leaf) {
+                this.infos = leaf ? new String[MAX + 1] : null;
+                this.children = leaf ? null : new Node[MAX + 1];
+                this.counts = leaf ? null : new int[MAX + 1];
+                this.sums = leaf ? null : new long[MAX + 1];
+            }
+
+            private boolean leaf() {
+                return children == null;
+            }
+        }
+
+        private Node root = new Node(true);
+        private int size;
+        // set by the recursive insert / delete when the item was found to add / remove
+        private boolean changed;
+
+        /** same as AVLTree.empty */
+        public boolean empty() {
+            return size == 0;
+        }
+
+        /** same as AVLTree.size */
+        public int size() {
+            return size;
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            Node x = root;
+            while (!x.leaf()) {
+                x = x.children[childIndex(x, k)];
+            }
+            int j = Arrays.binarySearch(x.keys, 0, x.n, k);
+            return (j >= 0) ? x.infos[j] : null;
+        }
+
+        /** same as AVLTree.insert */
+        public int insert(int k, String i) {
+            changed = false;
+            Node right = insert(root, k, i);
+            if (!changed) {
+                return -1;
+            }
+            if (right != null) {
+                Node top = new Node(false);
+                top.n = 2;
+                top.children[0] = root;
+                top.children[1] = right;
+                top.keys[1] = right.keys[0];
+                count(top, 0);
+                count(top, 1);
+                root = top;
+            }
+            size++;
+            return 0;
+        }
+
+        /** same as AVLTree.delete */
+        public int delete(int k) {
+            changed = false;
+            delete(root, k);
+            if (!changed) {
+                return -1;
+            }
+            size--;
+            if (!root.leaf() && root.n == 0) {
+                root = new Node(true);
+            }
+            while (!root.leaf() && root.n == 1) {
+                root = root.children[0];
+            }
+            return 0;
+        }
+
+        /** same as AVLTree.min */
+        public String min() {
+            if (empty()) {
+                return null;
+            }
+            Node x = root;
+            while (!x.leaf()) {
+                x = x.children[0];
+            }
+            return x.infos[0];
+        }
+
+        /** same as AVLTree.max */
+        public String max() {
+            if (empty()) {
+                return null;
+            }
+            Node x = root;
+            while (!x.leaf()) {
+                x = x.children[x.n - 1];
+            }
+            return x.infos[x.n - 1];
+        }
+
+        /** same as AVLTree.select */
+        public String select(int i) {
+            if (i < 1 || i > size) {
+                return null;
+            }
+            Node x = root;
+            while (!x.leaf()) {
+                int j = 0;
+                while (i > x.counts[j]) {
+                    i -= x.counts[j];
+                    j++;
+                }
+                x = x.children[j];
+            }
+            return x.infos[i - 1];
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            long summ = 0;
+            Node x = root;
+            while (!x.leaf()) {
+                int j = childIndex(x, i);
+                for (int c = 0; c < j; c++) {
+                    summ += x.sums[c];
+                }
+                x = x.children[j];
+            }
+            for (int c = 0; c < x.n && x.keys[c] <= i; c++) {
+                summ += x.keys[c];
+            }
+            return summ;
+        }
+
+        /** same as AVLTree.keysToArray */
+        public int[] keysToArray() {
+            int[] arr = new int[size];
+            collect(root, arr, null, 0);
+            return arr;
+        }
+
+        /** same as AVLTree.infoToArray */
+        public String[] infoToArray() {
+            String[] arr = new String[size];
+            collect(root, null, arr, 0);
+            return arr;
+        }
+
+        /** the child of inner node x whose range holds k */
+        private static int childIndex(Node x, int k) {
+            int j = Arrays.binarySearch(x.keys, 1, x.n, k);
+            return (j >= 0) ? j : -j - 2;
+        }
+
+        /**
+         * inserts (k, info) under x, setting changed unless k is already there.
+         * returns the new right half if x overflowed and was split, otherwise null
+         */
+        private Node insert(Node x, int k, String info) {
+            if (x.leaf()) {
+                int j = Arrays.binarySearch(x.keys, 0, x.n, k);
+                if (j >= 0) {
+                    return null;
+                }
+                j = -j - 1;
+                System.arraycopy(x.keys, j, x.keys, j + 1, x.n - j);
+                System.arraycopy(x.infos, j, x.infos, j + 1, x.n - j);
+                x.keys[j] = k;
+                x.infos[j] = info;
+                x.n++;
+                changed = true;
+            } else {
+                int j = childIndex(x, k);
+                Node right = insert(x.children[j], k, info);
+                if (!changed) {
+                    return null;
+                }
+                x.counts[j]++;
+                x.sums[j] += k;
+                if (right != null) {
+                    int moved = x.n - j - 1;
+                    System.arraycopy(x.keys, j + 1, x.keys, j + 2, moved);
+                    System.arraycopy(x.children, j + 1, x.children, j + 2, moved);
+                    System.arraycopy(x.counts, j + 1, x.counts, j + 2, moved);
+                    System.arraycopy(x.sums, j + 1, x.sums, j + 2, moved);
+                    x.keys[j + 1] = right.keys[0];
+                    x.children[j + 1] = right;
+                    x.n++;
+                    count(x, j);
+                    count(x, j + 1);
+                }
+            }
+            return (x.n > MAX) ? split(x) : null;
+        }
+
+        /** removes k from under x, setting changed if it was there */
+        private void delete(Node x, int k) {
+            if (x.leaf()) {
+                int j = Arrays.binarySearch(x.keys, 0, x.n, k);
+                if (j >= 0) {
+                    removeAt(x, j);
+                    changed = true;
+                }
+                return;
+            }
+            int j = childIndex(x, k);
+            Node child = x.children[j];
+            delete(child, k);
+            if (!changed) {
+                return;
+            }
+            x.counts[j]--;
+            x.sums[j] -= k;
+            if (child.n == 0) {
+                removeAt(x, j);
+            } else if (child.n < MIN) {
+                if (j + 1 < x.n && child.n + x.children[j + 1].n <= MAX) {
+                    mergeNext(x, j);
+                } else if (j > 0 && x.children[j - 1].n + child.n <= MAX) {
+                    mergeNext(x, j - 1);
+                }
+            }
+        }
+
+        /** moves the upper half of x to a new node, whose keys[0] is its separator. returns the new node */
+        private static Node split(Node x) {
+            int half = x.n / 2;
+            Node right = new Node(x.leaf());
+            right.n = x.n - half;
+            System.arraycopy(x.keys, half, right.keys, 0, right.n);
+            if (x.leaf()) {
+                System.arraycopy(x.infos, half, right.infos, 0, right.n);
+                Arrays.fill(x.infos, half, x.n, null);
+            } else {
+                System.arraycopy(x.children, half, right.children, 0, right.n);
+                System.arraycopy(x.counts, half, right.counts, 0, right.n);
+                System.arraycopy(x.sums, half, right.sums, 0, right.n);
+                Arrays.fill(x.children, half, x.n, null);
+            }
+            x.n = half;
+            return right;
+        }
+
+        /** appends children[j + 1] of x to children[j] and drops it from x */
+        private static void mergeNext(Node x, int j) {
+            Node left = x.children[j];
+            Node right = x.children[j + 1];
+            if (!left.leaf()) {
+                right.keys[0] = x.keys[j + 1];
+            }
+            System.arraycopy(right.keys, 0, left.keys, left.n, right.n);
+            if (left.leaf()) {
+                System.arraycopy(right.infos, 0, left.infos, left.n, right.n);
+            } else {
+                System.arraycopy(right.children, 0, left.children, left.n, right.n);
+                System.arraycopy(right.counts, 0, left.counts, left.n, right.n);
+                System.arraycopy(right.sums, 0, left.sums, left.n, right.n);
+            }
+            left.n += right.n;
+            x.counts[j] += x.counts[j + 1];
+            x.sums[j] += x.sums[j + 1];
+            removeAt(x, j + 1);
+        }
+
+        /** removes entry j of x */
+        private static void removeAt(Node x, int j) {
+            int moved = x.n - j - 1;
+            System.arraycopy(x.keys, j + 1, x.keys, j, moved);
+            x.n--;
+            if (x.leaf()) {
+                System.arraycopy(x.infos, j + 1, x.infos, j, moved);
+                x.infos[x.n] = null;
+            } else {
+                System.arraycopy(x.children, j + 1, x.children, j, moved);
+                System.arraycopy(x.counts, j + 1, x.counts, j, moved);
+                System.arraycopy(x.sums, j + 1, x.sums, j, moved);
+                x.children[x.n] = null;
+            }
+        }
+
+        /** recomputes the count and the sum of children[j] of x */
+        private static void count(Node x, int j) {
+            Node child = x.children[j];
+            int cnt = 0;
+            long summ = 0;
+            for (int c = 0; c < child.n; c++) {
+                if (child.leaf()) {
+                    cnt++;
+                    summ += child.keys[c];
+                } else {
+                    cnt += child.counts[c];
+                    summ += child.sums[c];
+                }
+            }
+            x.counts[j] = cnt;
+            x.sums[j] = summ;
+        }
+
+        /** writes the keys or the infos under x in key order from arr[index], returns the next index */
+        private static int collect(Node x, int[] keys, String[] infos, int index) {
+            if (x.leaf()) {
+                if (keys != null) {
+                    System.arraycopy(x.keys, 0, keys, index, x.n);
+                } else {
+                    System.arraycopy(x.infos, 0, infos, index, x.n);
+                }
+                return index + x.n;
+            }
+            for (int c = 0; c < x.n; c++) {
+                index = collect(x.children[c], keys, infos, index);
+            }
+            return index;
+        }
+    }
+
+
+
+                        /////////// Logged trees ///////////
+
+
+    /**
+     * public class SnapshotFile
+     *
+     * Compact file of the items of a tree: magic, version and item count, then the keys in
+     * increasing order as varints (the first one zigzag encoded, then the gap to the previous key),
+     * then the infos, each as a varint of its UTF-8 length + 1 (0 for null) followed by the bytes,
+     * and last a CRC32 of all the rest. dense keys take one byte each.
+     * the file is written and read through a FileChannel with a 1MB buffer, read builds
+     * the tree with fromSorted, in O(n).
+     * write goes to file + ".tmp", forces it, renames it over file with ATOMIC_MOVE and forces
+     * the directory, so after a crash file holds either the old snapshot or the whole new one.
+     */
+    public static final class SnapshotFile {
+
+        static final long MAGIC = 0x41564c534e415031L;
+        static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+        private static final int BUFFER_BYTES = 1 << 20;
+
+        private SnapshotFile() {
+        }
+
+        /**
+         * writes the items of tree to file, walking the tree in place, and forces it to the disk.
+         * the tree must not change meanwhile
+         */
+        public static void write(AVLTree tree, Path file) throws IOException {
+            try (Writer out = new Writer(file)) {
+                out.header(tree.size());
+                Cursor c = tree.cursor();
+                for (boolean ok = c.first(); ok; ok = c.next()) {
+                    out.key(c.key());
+                }
+                for (boolean ok = c.first(); ok; ok = c.next()) {
+                    out.info(c.info());
+                }
+                out.finish();
+            }
+        }
+
+        /**
+         * same as write(AVLTree, Path), for items copied out of a tree (like keysToArray / infoToArray).
+         * throws IllegalArgumentException if the arrays differ in length or the keys are not strictly increasing
+         */
+        public static void write(int[] keys, String[] infos, Path file) throws IOException {
+            if (keys.length != infos.length) {
+                throw new IllegalArgumentException("got " + keys.length + " keys and " + infos.length + " infos");
+            }
+            try (Writer out = new Writer(file)) {
+                out.header(keys.length);
+                for (int k : keys) {
+                    out.key(k);
+                }
+                for (String info : infos) {
+                    out.info(info);
+                }
+                out.finish();
+            }
+        }
+
+        /**
+         * reads the tree written to file.
+         * throws IOException if file is not a snapshot or is damaged
+         */
+        public static AVLTree read(Path file) throws IOException {
+            return read(file, null);
+        }
+
+        /**
+         * same as read(file), the infos read are replaced by their canonical instance in dictionary,
+         * and the tree keeps using it (see setInfoDictionary)
+         */
+        public static AVLTree read(Path file, InfoDictionary dictionary) throws IOException {
+            try (Reader in = new Reader(file)) {
+                int n = in.header();
+                int[] keys = new int[n];
+                String[] infos = new String[n];
+                long prev = 0;
+                for (int j = 0; j < n; j++) {
+                    long v = in.varint();
+                    long k = (j == 0) ? (int) (v >>> 1) ^ -(int) (v & 1) : prev + v;
+                    if (v > 0xFFFFFFFFL || (j > 0 && (v == 0 || k > Integer.MAX_VALUE))) {
+                        throw in.damaged();
+                    }
+                    keys[j] = (int) k;
+                    prev = k;
+                }
+                for (int j = 0; j < n; j++) {
+                    long length = in.varint() - 1;
+                    if (length > Integer.MAX_VALUE) {
+                        throw in.damaged();
+                    }
+                    infos[j] = (length < 0) ? null : in.string((int) length);
+                    if (dictionary != null) {
+                        infos[j] = dictionary.intern(infos[j]);
+                    }
+                }
+                in.finish();
+                AVLTree tree = AVLTree.fromSorted(keys, infos);
+                tree.setInfoDictionary(dictionary);
+                return tree;
+            }
+        }
+
+        private static final class Writer implements AutoCloseable {
+
+            private final Path file;
+            private final Path tmp;
+            private final FileChannel channel;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            private final CRC32 crc = new CRC32();
+            private boolean started;
+            private long prevKey;
+            private boolean renamed;
+
+            /** opens file + ".tmp", which finish renames over file */
+            private Writer(Path file) throws IOException {
+                this.file = file;
+                this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            private void header(int n) {
+                buf.putLong(MAGIC).putInt(VERSION).putInt(n);
+            }
+
+            /** the first key zigzag encoded, the others as the gap to the previous one */
+            private void key(int k) throws IOException {
+                if (!started) {
+                    varint(((k << 1) ^ (k >> 31)) & 0xFFFFFFFFL);
+                } else if (k > prevKey) {
+                    varint(k - prevKey);
+                } else {
+                    throw new IllegalArgumentException("keys are not strictly increasing at key " + k);
+                }
+                started = true;
+                prevKey = k;
+            }
+
+            private void info(String info) throws IOException {
+                if (info == null) {
+                    varint(0);
+                    return;
+                }
+                byte[] bytes = info.getBytes(StandardCharsets.UTF_8);
+                varint(bytes.length + 1L);
+                for (int off = 0; off < bytes.length; ) {
+                    if (!buf.hasRemaining()) {
+                        drain();
+                    }
+                    int n = Math.min(buf.remaining(), bytes.length - off);
+                    buf.put(bytes, off, n);
+                    off += n;
+                }
+            }
+
+            private void varint(long v) throws IOException {
+                if (buf.remaining() < 10) {
+                    drain();
+                }
+                while ((v & ~0x7FL) != 0) {
+                    buf.put((byte) ((v & 0x7F) | 0x80));
+                    v >>>= 7;
+                }
+                buf.put((byte) v);
+            }
+
+            private void drain() throws IOException {
+                buf.flip();
+                crc.update(buf.duplicate());
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                buf.clear();
+            }
+
+            /**
+             * writes the rest and the CRC, forces the temp file, renames it over file
+             * and forces the directory, so the rename is on the disk too
+             */
+            private void finish() throws IOException {
+                drain();
+                buf.putInt((int) crc.getValue()).flip();
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+                channel.force(true);
+                channel.close();
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                renamed = true;
+                Path dir = file.toAbsolutePath().getParent();
+                try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                    directory.force(true);
+                }
+            }
+
+            /** closes the temp file, and deletes it if it was not renamed over file */
+            public void close() throws IOException {
+                channel.close();
+                if (!renamed) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+
+        private static final class Reader implements AutoCloseable {
+
+            private final Path file;
+            private final FileChannel channel;
+            private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            private final CRC32 crc = new CRC32();
+            // bytes of the file before the CRC that are not in buf yet
+            private long left;
+
+            private Reader(Path file) throws IOException {
+                this.file = file;
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+                this.left = channel.size() - 4;
+                buf.limit(0);
+            }
+
+            private int header() throws IOException {
+                if (left < HEADER_BYTES) {
+                    throw new IOException(file + " is not an AVL tree snapshot");
+                }
+                need(HEADER_BYTES);
+                if (buf.getLong() != MAGIC || buf.getInt() != VERSION) {
+                    throw new IOException(file + " is not an AVL tree snapshot");
+                }
+                int n = buf.getInt();
+                // every item takes at least 2 bytes
+                if (n < 0 || n > (left + buf.remaining()) / 2) {
+                    throw damaged();
+                }
+                return n;
+            }
+
+            private long varint() throws IOException {
+                long v = 0;
+                for (int shift = 0; shift < 64; shift += 7) {
+                    need(1);
+                    byte b = buf.get();
+                    v |= (long) (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        return v;
+                    }
+                }
+                throw damaged();
+            }
+
+            private String string(int length) throws IOException {
+                if (length > left + buf.remaining()) {
+                    throw damaged();
+                }
+                byte[] bytes = new byte[length];
+                for (int off = 0; off < length; ) {
+                    need(1);
+                    int n = Math.min(buf.remaining(), length - off);
+                    buf.get(bytes, off, n);
+                    off += n;
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            /** makes sure buf holds at least bytes unread bytes, reading as much as fits */
+            private void need(int bytes) throws IOException {
+                if (buf.remaining() >= bytes) {
+                    return;
+                }
+                buf.compact();
+                while (buf.hasRemaining() && left > 0) {
+                    int start = buf.position();
+                    buf.limit((int) Math.min(buf.capacity(), start + left));
+                    int n = channel.read(buf);
+                    if (n < 0) {
+                        break;
+                    }
+                    ByteBuffer fresh = buf.duplicate();
+                    fresh.position(start).limit(start + n);
+                    crc.update(fresh);
+                    left -= n;
+                }
+                buf.flip();
+                if (buf.remaining() < bytes) {
+                    throw damaged();
+                }
+            }
+
+            /** checks that all the items were read and the CRC */
+            private void finish() throws IOException {
+                if (buf.hasRemaining() || left > 0) {
+                    throw damaged();
+                }
+                ByteBuffer stored = ByteBuffer.allocate(4);
+                channel.read(stored, channel.size() - 4);
+                if (stored.hasRemaining() || stored.getInt(0) != (int) crc.getValue()) {
+                    throw damaged();
+                }
+            }
+
+            private IOException damaged() {
+                return new IOException(file + " is a damaged snapshot");
+            }
+
+            public void close() throws IOException {
+                channel.close();
+            }
+        }
+    }
+
+
+    /**
+     * public class LoggedAVLTree
+     *
+     * Thread safe AVLTree whose inserts and deletes survive a crash once they returned.
+     * every insert / delete which changed the tree is appended to file + ".log" as
+     * (op, key, info, CRC32), and returns only after the log was forced to the disk.
+     * group commit: writers which come while a force is running queue up, and the first
+     * of them writes and forces the records of all of them at once, so n writers at a time
+     * cost about one force instead of n. a commitDelayNanos > 0 makes each writer wait that
+     * long after appending its record, so the next force takes the records of the writers
+     * that came meanwhile too.
+     * checkpoint() writes a SnapshotFile of the items to file and empties the log. opening the
+     * tree loads file with fromSorted, then replays the log up to its first torn or damaged record.
+     * readers see a change as soon as it is applied, before it is durable: a search may return
+     * an info whose insert has not returned yet, and which a crash would still lose.
+     * an IOException while writing the log or the checkpoint marks the tree failed: the change
+     * which hit it, and those committed with it, may not be on the disk although readers see them.
+     * every later insert, delete or checkpoint then throws IllegalStateException, and so does the
+     * commit of every change not durable yet, until the tree is opened again from its files.
+     */
+    public static class LoggedAVLTree implements AutoCloseable {
+
+        static final byte INSERT = 1;
+        static final byte DELETE = 2;
+        // op, key, info length (-1 for null), followed by the info and a CRC32 of all of it
+        private static final int RECORD_HEADER = 9;
+        private static final int BUFFER_BYTES = 1 << 16;
+
+        private final Path file;
+        private final FileChannel log;
+        private final long commitDelayNanos;
+        private final AVLTree tree;
+        // the tree and the records not written yet
+        private final ReentrantLock lock = new ReentrantLock();
+        // writing to the files, taken before lock
+        private final ReentrantLock logLock = new ReentrantLock();
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+        private ByteBuffer writing = ByteBuffer.allocate(BUFFER_BYTES);
+        // number of the last record appended, and of the last one forced to the disk
+        private long appended;
+        private volatile long durable;
+        private volatile boolean failed;
+
+        public LoggedAVLTree(Path file) throws IOException {
+            this(file, 0);
+        }
+
+        /**
+         * opens the tree stored in file and its log, or creates an empty one if there is no file.
+         * throws IOException if file is not a snapshot or is damaged
+         */
+        public LoggedAVLTree(Path file, long commitDelayNanos) throws IOException {
+            this.file = file;
+            this.commitDelayNanos = commitDelayNanos;
+            this.tree = Files.exists(file) ? SnapshotFile.read(file) : new AVLTree();
+            Path logFile = file.resolveSibling(file.getFileName() + ".log");
+            this.log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                log.truncate(replay());
+                log.position(log.size());
+            } catch (IOException | RuntimeException e) {
+                try {
+                    log.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+
+        /** same as AVLTree.insert, returns once the insert is on the disk */
+        public int insert(int k, String i) {
+            byte[] bytes = (i == null) ? null : i.getBytes(StandardCharsets.UTF_8);
+            long seq;
+            int res;
+            lock.lock();
+            try {
+                checkNotFailed();
+                res = tree.insert(k, i);
+                if (res == -1) {
+                    return -1;
+                }
+                seq = append(INSERT, k, bytes);
+            } finally {
+                lock.unlock();
+            }
+            commit(seq);
+            return res;
+        }
+
+        /** same as AVLTree.delete, returns once the delete is on the disk */
+        public int delete(int k) {
+            long seq;
+            int res;
+            lock.lock();
+            try {
+                checkNotFailed();
+                res = tree.delete(k);
+                if (res == -1) {
+                    return -1;
+                }
+                seq = append(DELETE, k, null);
+            } finally {
+                lock.unlock();
+            }
+            commit(seq);
+            return res;
+        }
+
+        /** same as AVLTree.search */
+        public String search(int k) {
+            lock.lock();
+            try {
+                return tree.search(k);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.select */
+        public String select(int i) {
+            lock.lock();
+            try {
+                return tree.select(i);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.less */
+        public long less(int i) {
+            lock.lock();
+            try {
+                return tree.less(i);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.min */
+        public String min() {
+            lock.lock();
+            try {
+                return tree.min();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.max */
+        public String max() {
+            lock.lock();
+            try {
+                return tree.max();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.size */
+        public int size() {
+            lock.lock();
+            try {
+                return tree.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.empty */
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /** same as AVLTree.keysToArray */
+        public int[] keysToArray() {
+            lock.lock();
+            try {
+                return tree.keysToArray();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** same as AVLTree.infoToArray */
+        public String[] infoToArray() {
+            lock.lock();
+            try {
+                return tree.infoToArray();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * writes all items to file and empties the log. writers may go on applying changes
+         * meanwhile, but wait with their commit until the checkpoint is done.
+         */
+        public void checkpoint() throws IOException {
+            logLock.lock();
+            try {
+                checkNotFailed();
+                int[] keys;
+                String[] infos;
+                long upTo;
+                lock.lock();
+                try {
+                    keys = tree.keysToArray();
+                    infos = tree.infoToArray();
+                    // the checkpoint holds the records not written yet
+                    pending.clear();
+                    upTo = appended;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    SnapshotFile.write(keys, infos, file);
+                    // a crash right here replays the whole log onto the new checkpoint, which ends
+                    // in the same items: every record repeats the last change of its key
+                    log.truncate(0);
+                    log.force(true);
+                } catch (IOException | RuntimeException e) {
+                    // the records cleared from pending are in neither file
+                    failed = true;
+                    throw e;
+                }
+                durable = upTo;
+            } finally {
+                logLock.unlock();
+            }
+        }
+
+        /**
+         * writes the records not written yet and closes the log, the tree must not be used afterwards.
+         * a failed tree is closed without writing anything
+         */
+        public void close() throws IOException {
+            logLock.lock();
+            try {
+                if (!failed) {
+                    flush();
+                }
+                log.close();
+            } finally {
+                logLock.unlock();
+            }
+        }
+
+        /** appends a record to pending, called under lock. returns its number */
+        private long append(byte op, int k, byte[] bytes) {
+            int length = (bytes == null) ? 0 : bytes.length;
+            int need = RECORD_HEADER + length + 4;
+            if (pending.remaining() < need) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + need));
+                pending.flip();
+                pending = bigger.put(pending);
+            }
+            int start = pending.position();
+            pending.put(op).putInt(k).putInt((bytes == null) ? -1 : length);
+            if (bytes != null) {
+                pending.put(bytes);
+            }
+            crc.reset();
+            crc.update(pending.array(), start, pending.position() - start);
+            pending.putInt((int) crc.getValue());
+            return ++appended;
+        }
+
+        /** throws IllegalStateException if an earlier write failed */
+        private void checkNotFailed() {
+            if (failed) {
+                throw new IllegalStateException("an earlier write of the log failed, open the tree again");
+            }
+        }
+
+        /**
+         * returns once record seq is on the disk, forcing it (and whatever came with it) if no one else did.
+         * the commit delay is waited without logLock, so the writers whose records a force took
+         * meanwhile are not held back behind a writer that is gathering the next batch
+         */
+        private void commit(long seq) {
+            if (commitDelayNanos > 0 && durable < seq) {
+                LockSupport.parkNanos(commitDelayNanos);
+            }
+            if (durable >= seq) {
+                return;
+            }
+            logLock.lock();
+            try {
+                if (durable < seq) {
+                    checkNotFailed();
+                    flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                logLock.unlock();
+            }
+        }
+
+        /**
+         * writes and forces the records not written yet, called under logLock.
+         * writing is cleared even if this throws, it becomes pending at the next flush
+         */
+        private void flush() throws IOException {
+            long upTo;
+            lock.lock();
+            try {
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                upTo = appended;
+            } finally {
+                lock.unlock();
+            }
+            writing.flip();
+            try {
+                write(writing);
+            } catch (IOException | RuntimeException e) {
+                // the records may be partly in the log, and are no longer in any buffer
+                failed = true;
+                throw e;
+            } finally {
+                writing.clear();
+            }
+            durable = upTo;
+        }
+
+        /** appends records to the log and forces it */
+        void write(ByteBuffer records) throws IOException {
+            while (records.hasRemaining()) {
+                log.write(records);
+            }
+            log.force(false);
+        }
+
+        /** applies the records of the log to the tree, returns the length of its undamaged head */
+        private long replay() throws IOException {
+            long size = log.size();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(0)), BUFFER_BYTES));
+            byte[] head = new byte[RECORD_HEADER];
+            long valid = 0;
+            while (valid + RECORD_HEADER + 4 <= size) {
+                in.readFully(head);
+                ByteBuffer fields = ByteBuffer.wrap(head);
+                byte op = fields.get();
+                int k = fields.getInt();
+                int length = fields.getInt();
+                long end = valid + RECORD_HEADER + Math.max(length, 0) + 4;
+                if ((op != INSERT && op != DELETE) || length < -1 || end > size) {
+                    break;
+                }
+                byte[] bytes = (length < 0) ? null : new byte[length];
+                crc.reset();
+                crc.update(head);
+                if (bytes != null) {
+                    in.readFully(bytes);
+                    crc.update(bytes);
+                }
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (op == INSERT) {
+                    tree.insert(k, (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8));
+                } else {
+                    tree.delete(k);
+                }
+                valid = end;
+            }
+            return valid;
+        }
+    }
+}
@@ -0,0 +1,2675 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.Supplier;
+
+/**
+ *
+ * AVLTreeBench - timing and verification harness for AVLTree
+ *
+ * needs nothing but the JDK:
+ *   javac AVLTree.java AVLTreeBench.java
+ *   java AVLTreeBench verify [sizes] [dists]
+ *   java AVLTreeBench time [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench engines [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench gc [sizes] [dists]
+ *   java AVLTreeBench footprint [sizes] [dists]
+ *   java AVLTreeBench startup [sizes] [dists]
+ *   java AVLTreeBench snapshot [sizes] [dists]
+ *   java AVLTreeBench batch [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench splitjoin [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench threads [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench persistent [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench ranks [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench wide [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench listener [sizes] [dists] [rounds] [ops]
+ *   java AVLTreeBench logged [sizes] [dists] [rounds] [ops]
+ *
+ * sizes is a comma separated list of tree sizes (default 1000,10000,100000,1000000),
+ * dists a comma separated list of seq, random and zipf key distributions (default all three).
+ * trees of 10M keys need a larger heap than the default, e.g. java -Xmx3g AVLTreeBench time 10000000
+ *
+ * verify checks the operations against a java.util.TreeMap and stops at the first difference,
+ * for AVLTree and for the other trees of AVLTree.java.
+ * time reports for insert, insertMinKey (into a tree keeping Aggregate.MIN_KEY), delete, insertSorted,
+ * append, fromSorted, search, ceiling, select, less, keysToArray, infoToArray, cursorScan (a scan
+ * of the whole tree with a cursor), nodeWalk (the same with getLeft, getRight and isRealNode), rangeCount, rangeSum and rangeMinKey (over a tenth of the key
+ * range) and seek+100 (a cursor seek followed by 100 steps)
+ * the operations per second of the best of rounds runs (after rounds warm up runs),
+ * the bytes allocated per operation by the measuring thread, and the number and time of
+ * the garbage collections during the measured runs. ops limits it to a comma separated list of these.
+ * engines reports insert, search and delete for each tree over int handles (IndexedAVLTree).
+ * IntIntAVLTree is timed first and again last: the first lines are taken while
+ * IndexedAVLTree's loops have only seen IntIntAVLTree, the last ones after they
+ * have seen every other tree class too (only for the first size and dist of a run).
+ * gc builds an AVLTree, one keeping Aggregate.MIN_KEY, a PooledAVLTree and an OffHeapAVLTree and
+ * reports the heap they hold and the time of a full collection with each of them live.
+ * footprint reports the heap held per item by an AVLTree with distinct infos, and by an AVLTree,
+ * a TreeMap and a SnapshotFile.read whose infos repeat 100 distinct strings, without and with an InfoDictionary.
+ * startup compares opening a closed MappedAVLTree file with building the same tree by inserting every key.
+ * snapshot reports the best of 3 times of SnapshotFile.write of an AVLTree and of its arrays and of
+ * SnapshotFile.read, and the file size per item next to that of 4 byte keys and 4 byte info lengths.
+ * batch times insertAll and deleteAll of 10K and 100K random keys on a tree of size keys,
+ * next to insert and delete of each of them (dists is not used).
+ * splitjoin times a split of a tree of size keys at a random key and the join of the two halves
+ * back together, next to building the two halves and then the whole tree by inserting every key.
+ * threads runs 1, 2 and 4 threads of random searches with 0%, 10% and 50% inserts and deletes
+ * on a tree of size keys, for StampedAVLTree, for a ShardedAVLTree of 16 shards and for an
+ * AVLTree behind one synchronized lock, and reports the operations per second of all threads together (dists is not used).
+ * persistent reports insert, delete, search and snapshot for PersistentAVLTree, in the
+ * same way as time does for AVLTree.
+ * ranks times select and rank of random ranks among the first, the middle and the last
+ * hundredth of a tree of size random keys (dists is not used).
+ * wide reports insert, search, select and less for WideNodeTree and for AVLTree, all items sharing
+ * one info so that 16M keys fit, e.g. java -Xmx4g AVLTreeBench wide 1000000,16000000 random.
+ * insert is measured once (after one warm up build), whatever rounds is.
+ * listener reports insert, search and delete for AVLTree without a listener and with a Metrics.
+ * logged runs 1, 2, 4 and 8 threads of inserts into a LoggedAVLTree in a temp directory with
+ * commit delays of 0, 20us, 100us and 1ms, and reports the inserts per second of all threads
+ * together and the records per force of the log (sizes and dists are not used).
+ *
+ * JMH is not used: it refuses benchmark classes in the default package, and a class
+ * in a named package cannot use AVLTree, which is in the default package.
+ *
+ */
+public class AVLTreeBench {
+
+    private static final int OPS = 1 << 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long sink;
+
+    /** names of the measurements to run, null for all */
+    private static List<String> only;
+
+    public static void main(String[] args) throws IOException {
+        String mode = (args.length > 0) ? args[0] : "time";
+        int[] sizes = parseSizes((args.length > 1) ? args[1] : "1000,10000,100000,1000000");
+        String[] dists = (args.length > 2) ? args[2].split(",") : new String[] {"seq", "random", "zipf"};
+        int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+        only = (args.length > 4) ? Arrays.asList(args[4].split(",")) : null;
+        switch (mode) {
+            case "verify":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        verify(n, dist);
+                    }
+                }
+                verifyFailedAllocation();
+                verifyCrashes();
+                verifyNegativeKeys();
+                verifySnapshotDamage();
+                verifyLogFailures();
+                verifyGroupCommit();
+                verifyConcurrent();
+                break;
+            case "time":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        time(n, dist, rounds);
+                    }
+                }
+                break;
+            case "engines":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        engines(n, dist, rounds);
+                    }
+                }
+                break;
+            case "gc":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        gc(n, dist);
+                    }
+                }
+                break;
+            case "batch":
+                for (int n : sizes) {
+                    batch(n, rounds);
+                }
+                break;
+            case "splitjoin":
+                for (int n : sizes) {
+                    splitJoin(n, rounds);
+                }
+                break;
+            case "persistent":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        persistent(n, dist, rounds);
+                    }
+                }
+                break;
+            case "ranks":
+                for (int n : sizes) {
+                    ranks(n, rounds);
+                }
+                break;
+            case "wide":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        wide(n, dist, rounds);
+                    }
+                }
+                break;
+            case "listener":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        listener(n, dist, rounds);
+                    }
+                }
+                break;
+            case "logged":
+                logged(rounds);
+                break;
+            case "threads":
+                for (int n : sizes) {
+                    threads(n, rounds);
+                }
+                break;
+            case "footprint":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        footprint(n, dist);
+                    }
+                }
+                break;
+            case "startup":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        startup(n, dist);
+                    }
+                }
+                break;
+            case "snapshot":
+                for (String dist : dists) {
+                    for (int n : sizes) {
+                        snapshot(n, dist);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    static int[] parseSizes(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+
+                        /////////// Keys ///////////
+
+
+    /** count keys: seq is 0, 1, .. in order, random distinct keys in random order, zipf skewed keys with repeats */
+    static int[] keys(int count, String dist, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[count];
+        switch (dist) {
+            case "seq":
+                for (int i = 0; i < count; i++) {
+                    keys[i] = i;
+                }
+                break;
+            case "random":
+                for (int i = 0; i < count; i++) {
+                    keys[i] = 2 * i + random.nextInt(2); // distinct, spread over twice the range
+                }
+                shuffle(keys, random);
+                break;
+            case "zipf":
+                Zipf zipf = new Zipf(count, 0.99, random);
+                for (int i = 0; i < count; i++) {
+                    keys[i] = zipf.next();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("distribution is seq, random or zipf, not " + dist);
+        }
+        return keys;
+    }
+
+    /** ops keys of the tree built from keys, drawn with distribution dist */
+    static int[] probes(int[] keys, int ops, String dist) {
+        int[] probes = keys(ops, dist, 3);
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = keys[Math.floorMod(probes[i], keys.length)];
+        }
+        return probes;
+    }
+
+    static void shuffle(int[] a, Random random) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /** zipf(s) distributed ranks in [0, n), hot ranks scattered over the key range */
+    private static final class Zipf {
+
+        private final double[] cumulative;
+        private final Random random;
+
+        Zipf(int n, double s, Random random) {
+            // ranks past 2^20 are rare enough to leave out
+            int head = Math.min(n, 1 << 20);
+            this.cumulative = new double[head];
+            double total = 0;
+            for (int i = 0; i < head; i++) {
+                total += 1 / Math.pow(i + 1, s);
+                cumulative[i] = total;
+            }
+            for (int i = 0; i < head; i++) {
+                cumulative[i] /= total;
+            }
+            this.random = random;
+        }
+
+        int next() {
+            int i = Arrays.binarySearch(cumulative, random.nextDouble());
+            int rank = (i < 0) ? -i - 1 : i;
+            return Integer.reverse(rank) >>> 1; // hot keys are not neighbours
+        }
+    }
+
+
+                        /////////// Verify ///////////
+
+
+    /** builds a tree and a TreeMap of n keys of dist, deletes half of the keys, and checks every operation against the map */
+    private static void verify(int n, String dist) throws IOException {
+        int[] keys = keys(n, dist, 1);
+        AVLTree tree = new AVLTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        Random random = new Random(2);
+        for (int k : keys) {
+            String info = "v" + k;
+            boolean fresh = !map.containsKey(k);
+            int rotations = tree.insert(k, info);
+            check(fresh ? rotations >= 0 : rotations == -1, "insert", k);
+            map.putIfAbsent(k, info);
+        }
+        checkSame(tree, map);
+        for (int i = 0; i < n / 2; i++) {
+            int k = keys[random.nextInt(n)];
+            boolean present = map.remove(k) != null;
+            int rotations = tree.delete(k);
+            check(present ? rotations >= 0 : rotations == -1, "delete", k);
+        }
+        checkSame(tree, map);
+        verifyBulk(map);
+        verifyBatch(keys);
+        verifySplitJoin(map);
+        verifyAggregates(keys, map);
+        verifyListener(keys, map);
+        verifyStamped(keys, map);
+        verifySharded(keys, map);
+        verifyPersistent(keys, map);
+        verifyWide(keys, map);
+        verifyPrimitive(keys, n / 2);
+        verifySnapshot(map);
+        verifyDictionary(keys, map);
+        verifyLogged(keys, map);
+        System.out.println("verify " + dist + " " + n + " OK");
+    }
+
+    private static void checkSame(AVLTree tree, TreeMap<Integer, String> map) {
+        check(tree.size() == map.size(), "size", map.size());
+        check(tree.empty() == map.isEmpty(), "empty", map.size());
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        check(Arrays.equals(tree.keysToArray(), keys), "keysToArray", keys.length);
+        check(Arrays.equals(tree.infoToArray(), map.values().toArray(new String[0])), "infoToArray", keys.length);
+        long sum = 0;
+        int i = 0;
+        for (Map.Entry<Integer, String> e : map.entrySet()) {
+            int k = e.getKey();
+            i++;
+            sum += k;
+            check(e.getValue().equals(tree.search(k)), "search", k);
+            check(Objects.equals(tree.search(k + 1), map.get(k + 1)), "search", k + 1);
+            check(e.getValue().equals(tree.select(i)), "select", i);
+            check(tree.selectNode(i).getKey() == k && tree.rank(k) == i, "rank", k);
+            check(map.containsKey(k + 1) || tree.rank(k + 1) == -1, "rank", k + 1);
+            check(tree.less(k) == sum, "less", k);
+            check(map.containsKey(k - 1) || tree.less(k - 1) == sum - k, "less", k - 1);
+            check(map.containsKey(k + 1) || tree.less(k + 1) == sum, "less", k + 1);
+        }
+        check(tree.selectNode(0) == null && tree.selectNode(i + 1) == null, "selectNode", i + 1);
+        if (!map.isEmpty()) {
+            check(tree.min().equals(map.firstEntry().getValue()), "min", map.firstKey());
+            check(tree.max().equals(map.lastEntry().getValue()), "max", map.lastKey());
+        }
+        checkCursor(tree, map);
+        checkRanges(tree, map);
+        checkNavigation(tree, map);
+    }
+
+    /** floor, ceiling, lower and higher at, below and above every key and at the ends of the int range */
+    private static void checkNavigation(AVLTree tree, TreeMap<Integer, String> map) {
+        List<Integer> at = new ArrayList<>(List.of(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        for (int k : map.keySet()) {
+            at.addAll(List.of(k - 1, k, k + 1));
+        }
+        for (int k : at) {
+            check(same(tree.floor(k), map.floorKey(k)), "floor", k);
+            check(same(tree.ceiling(k), map.ceilingKey(k)), "ceiling", k);
+            check(same(tree.lower(k), map.lowerKey(k)), "lower", k);
+            check(same(tree.higher(k), map.higherKey(k)), "higher", k);
+        }
+    }
+
+    static boolean same(AVLTree.IAVLNode node, Integer key) {
+        return (node == null) ? key == null : key != null && node.getKey() == key;
+    }
+
+    /**
+     * rangeCount and rangeSum for the ranges between any two bounds next to about 32 of the keys,
+     * rangeIterator for the ranges between neighbouring bounds and for the whole tree
+     */
+    private static void checkRanges(AVLTree tree, TreeMap<Integer, String> map) {
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        long[] sums = new long[keys.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            sums[i + 1] = sums[i] + keys[i];
+        }
+        int step = Math.max(1, keys.length / 32);
+        List<Integer> bounds = new ArrayList<>(List.of(Integer.MIN_VALUE));
+        for (int i = 0; i < keys.length; i += step) {
+            bounds.addAll(List.of(keys[i] - 1, keys[i], keys[i] + 1));
+        }
+        bounds.add(Integer.MAX_VALUE);
+        for (int lo : bounds) {
+            for (int hi : bounds) {
+                int from = (lo <= hi) ? ceilingIndex(keys, lo) : 0;
+                int to = (lo <= hi) ? ceilingIndex(keys, hi) + ((Arrays.binarySearch(keys, hi) >= 0) ? 1 : 0) : 0;
+                check(tree.rangeCount(lo, hi) == to - from, "rangeCount", hi);
+                check(tree.rangeSum(lo, hi) == sums[to] - sums[from], "rangeSum", hi);
+            }
+        }
+        checkRangeIterator(tree, map, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        for (int j = 0; j + 4 < bounds.size(); j++) {
+            checkRangeIterator(tree, map, bounds.get(j), bounds.get(j + 4));
+        }
+    }
+
+    /** the index of the first of the sorted keys >= k */
+    static int ceilingIndex(int[] keys, int k) {
+        int i = Arrays.binarySearch(keys, k);
+        return (i >= 0) ? i : -i - 1;
+    }
+
+    private static void checkRangeIterator(AVLTree tree, TreeMap<Integer, String> map, int lo, int hi) {
+        Iterator<AVLTree.IAVLNode> it = tree.rangeIterator(lo, hi);
+        if (lo <= hi) {
+            for (int k : map.subMap(lo, true, hi, true).keySet()) {
+                check(it.hasNext() && it.next().getKey() == k, "rangeIterator", k);
+            }
+        }
+        check(!it.hasNext(), "rangeIterator", hi);
+    }
+
+    /** scans in both directions and seeks at, next to and by the rank of every key */
+    private static void checkCursor(AVLTree tree, TreeMap<Integer, String> map) {
+        AVLTree.Cursor c = tree.cursor();
+        check(!c.valid(), "cursor", 0);
+        boolean ok = c.first();
+        for (Map.Entry<Integer, String> e : map.entrySet()) {
+            check(ok && c.key() == e.getKey() && c.info().equals(e.getValue()), "cursor.next", e.getKey());
+            ok = c.next();
+        }
+        check(!ok && !c.next(), "cursor.next", map.size());
+        ok = c.last();
+        for (Map.Entry<Integer, String> e : map.descendingMap().entrySet()) {
+            check(ok && c.key() == e.getKey(), "cursor.prev", e.getKey());
+            ok = c.prev();
+        }
+        check(!ok && !c.prev(), "cursor.prev", map.size());
+        int i = 0;
+        for (int k : map.keySet()) {
+            i++;
+            check(c.seekRank(i) && c.key() == k, "cursor.seekRank", i);
+            for (int at = k - 1; at <= k + 1; at++) {
+                Integer ceiling = map.ceilingKey(at);
+                Integer floor = map.floorKey(at);
+                check((ceiling == null) ? !c.seek(at) : c.seek(at) && c.key() == ceiling, "cursor.seek", at);
+                check((floor == null) ? !c.seekFloor(at) : c.seekFloor(at) && c.key() == floor, "cursor.seekFloor", at);
+            }
+        }
+        check(!c.seekRank(0) && !c.seekRank(i + 1), "cursor.seekRank", i + 1);
+    }
+
+    /** fromSorted and append of the keys of map in order must give the same tree as insert */
+    private static void verifyBulk(TreeMap<Integer, String> map) {
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        String[] infos = map.values().toArray(new String[0]);
+        checkSame(AVLTree.fromSorted(keys, infos), map);
+        AVLTree appended = new AVLTree();
+        AVLTree inserted = new AVLTree();
+        for (int i = 0; i < keys.length; i++) {
+            check(appended.append(keys[i], infos[i]) == inserted.insert(keys[i], infos[i]), "append", keys[i]);
+        }
+        checkSame(appended, map);
+        if (keys.length > 0) {
+            check(appended.append(keys[0], "") == -1, "append", keys[0]);
+        }
+        try {
+            AVLTree.fromSorted(new int[] {2, 1}, new String[] {"a", "b"});
+            check(false, "fromSorted", 2);
+        }
+        catch (IllegalArgumentException expected) {
+            // keys out of order
+        }
+    }
+
+    /**
+     * insertAll and deleteAll of keys in batches must give the same tree and the same
+     * rotation totals as insert and delete of each key of a batch in increasing order
+     */
+    private static void verifyBatch(int[] keys) {
+        AVLTree batched = new AVLTree();
+        AVLTree single = new AVLTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        int batch = Math.max(1, keys.length / 16);
+        for (int from = 0; from < keys.length; from += batch) {
+            int[] part = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batch));
+            String[] infos = Arrays.stream(part).mapToObj(k -> "v" + k).toArray(String[]::new);
+            int expected = 0;
+            for (int k : Arrays.stream(part).sorted().toArray()) {
+                expected += Math.max(0, single.insert(k, "v" + k));
+                map.putIfAbsent(k, "v" + k);
+            }
+            check(batched.insertAll(part, infos) == expected, "insertAll", from);
+        }
+        checkSame(batched, map);
+        Random random = new Random(5);
+        int[] deletes = new int[keys.length / 2];
+        for (int i = 0; i < deletes.length; i++) {
+            deletes[i] = keys[random.nextInt(keys.length)] + ((i % 3 == 0) ? 1 : 0); // some are missing
+        }
+        for (int from = 0; from < deletes.length; from += batch) {
+            int[] part = Arrays.copyOfRange(deletes, from, Math.min(deletes.length, from + batch));
+            int expected = 0;
+            for (int k : Arrays.stream(part).sorted().toArray()) {
+                expected += Math.max(0, single.delete(k));
+                map.remove(k);
+            }
+            check(batched.deleteAll(part) == expected, "deleteAll", from);
+        }
+        checkSame(batched, map);
+    }
+
+    /** split at keys around and inside the tree, and join the halves back */
+    private static void verifySplitJoin(TreeMap<Integer, String> map) {
+        if (map.isEmpty()) {
+            return;
+        }
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        String[] infos = map.values().toArray(new String[0]);
+        int[] at = {keys[0] - 1, keys[0], keys[keys.length / 3], keys[keys.length / 2] + 1, keys[keys.length - 1], keys[keys.length - 1] + 1};
+        for (int k : at) {
+            AVLTree tree = AVLTree.fromSorted(keys, infos);
+            AVLTree[] halves = tree.split(k);
+            check(tree.empty(), "split", k);
+            checkSame(halves[0], new TreeMap<>(map.headMap(k, false)));
+            checkSame(halves[1], new TreeMap<>(map.tailMap(k, false)));
+            String v = "j" + k;
+            AVLTree joined = AVLTree.join(halves[0], k, v, halves[1]);
+            check(halves[0].empty() && halves[1].empty(), "join", k);
+            TreeMap<Integer, String> whole = new TreeMap<>(map);
+            whole.put(k, v);
+            checkSame(joined, whole);
+            try {
+                AVLTree.join(joined, k, v, new AVLTree());
+                check(false, "join", k);
+            }
+            catch (IllegalArgumentException expected) {
+                // k is already in the lower tree
+            }
+        }
+    }
+
+    /** the total length of the infos, an aggregate which reads the infos */
+    static final AVLTree.Aggregate INFO_LENGTH = new AVLTree.Aggregate() {
+        public long identity() {
+            return 0;
+        }
+
+        public long of(int key, String info) {
+            return info.length();
+        }
+
+        public long combine(long lower, long upper) {
+            return lower + upper;
+        }
+    };
+
+    /**
+     * trees keeping an aggregate, made by insert and delete, by fromSorted and by split and join,
+     * must give rangeAggregate as computed from map. the keys scattered over the whole int range
+     * must give sums which do not fit in an int
+     */
+    private static void verifyAggregates(int[] keys, TreeMap<Integer, String> map) {
+        int[] sorted = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        String[] infos = map.values().toArray(new String[0]);
+        for (AVLTree.Aggregate aggregate : List.of(AVLTree.Aggregate.MIN_KEY, AVLTree.Aggregate.MAX_KEY, INFO_LENGTH)) {
+            AVLTree tree = new AVLTree(aggregate);
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            for (int k : keys) {
+                if (!map.containsKey(k)) {
+                    tree.delete(k);
+                }
+            }
+            checkSame(tree, map);
+            checkAggregate(tree, aggregate, sorted, infos);
+            checkAggregate(AVLTree.fromSorted(sorted, infos, aggregate), aggregate, sorted, infos);
+            if (sorted.length > 0) {
+                int k = sorted[sorted.length / 2];
+                AVLTree[] halves = AVLTree.fromSorted(sorted, infos, aggregate).split(k);
+                checkAggregate(AVLTree.join(halves[0], k, map.get(k), halves[1]), aggregate, sorted, infos);
+                try {
+                    AVLTree.join(new AVLTree(aggregate), k, "", new AVLTree());
+                    check(false, "join", k);
+                }
+                catch (IllegalArgumentException expected) {
+                    // the trees keep different aggregates
+                }
+            }
+        }
+        try {
+            new AVLTree().rangeAggregate(0, 1);
+            check(false, "rangeAggregate", 0);
+        }
+        catch (IllegalStateException expected) {
+            // the tree keeps no aggregate
+        }
+        TreeMap<Integer, String> scattered = new TreeMap<>();
+        AVLTree tree = new AVLTree();
+        for (int k : map.keySet()) {
+            int w = k * 0x9E3779B1; // odd, so distinct keys stay distinct
+            scattered.put(w, "v" + k);
+            tree.insert(w, "v" + k);
+        }
+        checkSame(tree, scattered);
+    }
+
+    /** rangeAggregate for the ranges between any two bounds next to about 16 of the sorted keys */
+    private static void checkAggregate(AVLTree tree, AVLTree.Aggregate aggregate, int[] keys, String[] infos) {
+        long[] lengths = new long[keys.length + 1];
+        for (int i = 0; i < keys.length; i++) {
+            lengths[i + 1] = lengths[i] + infos[i].length();
+        }
+        int step = Math.max(1, keys.length / 16);
+        List<Integer> bounds = new ArrayList<>(List.of(Integer.MIN_VALUE));
+        for (int i = 0; i < keys.length; i += step) {
+            bounds.addAll(List.of(keys[i] - 1, keys[i], keys[i] + 1));
+        }
+        bounds.add(Integer.MAX_VALUE);
+        for (int lo : bounds) {
+            for (int hi : bounds) {
+                int from = (lo <= hi) ? ceilingIndex(keys, lo) : 0;
+                int to = (lo <= hi) ? ceilingIndex(keys, hi) + ((Arrays.binarySearch(keys, hi) >= 0) ? 1 : 0) : 0;
+                long expected;
+                if (aggregate == INFO_LENGTH) {
+                    expected = lengths[to] - lengths[from];
+                }
+                else if (from >= to) {
+                    expected = aggregate.identity();
+                }
+                else {
+                    expected = (aggregate == AVLTree.Aggregate.MIN_KEY) ? keys[from] : keys[to - 1];
+                }
+                check(tree.rangeAggregate(lo, hi) == expected, "rangeAggregate", hi);
+            }
+        }
+    }
+
+    /**
+     * a Metrics listener must count every insert, delete, search and rotation: the rotations of the
+     * inserts add up to what insert returns. insertAll and deleteAll must report the same as insert and
+     * delete of the keys of each batch in increasing order, and split and join must pass the listener on
+     */
+    private static void verifyListener(int[] keys, TreeMap<Integer, String> map) {
+        AVLTree.Metrics metrics = new AVLTree.Metrics();
+        AVLTree tree = new AVLTree();
+        tree.setListener(metrics);
+        long rotations = 0;
+        for (int k : keys) {
+            rotations += Math.max(0, tree.insert(k, "v" + k));
+        }
+        long size = tree.size();
+        check(metrics.getInserts() == size, "Metrics.getInserts", size);
+        check(metrics.getLLRotations() + metrics.getRRRotations()
+                + 2 * (metrics.getLRRotations() + metrics.getRLRotations()) == rotations, "Metrics.getLLRotations", rotations);
+        check(metrics.getHeight() == tree.getRoot().getHeight(), "Metrics.getHeight", size);
+        // the depth of an insert is taken before the rotations, one below the final height at most
+        check(metrics.getMaxDepth() <= metrics.getHeight() + 2, "Metrics.getMaxDepth", size);
+        for (int k : map.keySet()) {
+            tree.search(k);
+        }
+        check(metrics.getSearches() == map.size(), "Metrics.getSearches", map.size());
+        int deleted = 0;
+        for (int k : keys) {
+            if (!map.containsKey(k) && tree.delete(k) >= 0) {
+                deleted++;
+            }
+        }
+        check(metrics.getDeletes() == deleted, "Metrics.getDeletes", deleted);
+
+        AVLTree.Metrics batchedMetrics = new AVLTree.Metrics();
+        AVLTree.Metrics singleMetrics = new AVLTree.Metrics();
+        AVLTree batched = new AVLTree();
+        AVLTree single = new AVLTree();
+        batched.setListener(batchedMetrics);
+        single.setListener(singleMetrics);
+        int batch = Math.max(1, keys.length / 16);
+        for (int from = 0; from < keys.length; from += batch) {
+            int[] part = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batch));
+            batched.insertAll(part, Arrays.stream(part).mapToObj(k -> "v" + k).toArray(String[]::new));
+            for (int k : Arrays.stream(part).sorted().toArray()) {
+                single.insert(k, "v" + k);
+            }
+        }
+        for (int from = 0; from < keys.length; from += batch) {
+            int[] part = Arrays.stream(Arrays.copyOfRange(keys, from, Math.min(keys.length, from + batch)))
+                    .filter(k -> !map.containsKey(k)).toArray();
+            batched.deleteAll(part);
+            for (int k : Arrays.stream(part).sorted().toArray()) {
+                single.delete(k);
+            }
+        }
+        checkSameMetrics(batchedMetrics, singleMetrics);
+
+        if (!map.isEmpty()) {
+            int k = map.firstKey();
+            AVLTree[] halves = single.split(k);
+            halves[1].insert(k, "v" + k);
+            check(singleMetrics.getInserts() == batchedMetrics.getInserts() + 1, "split", k);
+            halves[1].delete(k);
+            AVLTree joined = AVLTree.join(new AVLTree(), k, "v" + k, halves[1]);
+            joined.search(k);
+            check(singleMetrics.getSearches() == batchedMetrics.getSearches() + 1, "join", k);
+        }
+    }
+
+    static void checkSameMetrics(AVLTree.Metrics a, AVLTree.Metrics b) {
+        check(a.getInserts() == b.getInserts() && a.getDeletes() == b.getDeletes(), "Metrics.getInserts", b.getInserts());
+        for (AVLTree.Rotation rotation : AVLTree.Rotation.values()) {
+            check(a.getRotations(rotation) == b.getRotations(rotation), "Metrics.getRotations", b.getRotations(rotation));
+        }
+        check(a.getAverageDepth() == b.getAverageDepth() && a.getMaxDepth() == b.getMaxDepth(), "Metrics.getAverageDepth", b.getMaxDepth());
+        check(a.getHeight() == b.getHeight(), "Metrics.getHeight", b.getHeight());
+    }
+
+    /** a StampedAVLTree given the inserts of keys and the deletes of the keys missing from map must give map */
+    private static void verifyStamped(int[] keys, TreeMap<Integer, String> map) {
+        AVLTree.StampedAVLTree stamped = new AVLTree.StampedAVLTree();
+        AVLTree reference = new AVLTree();
+        for (int k : keys) {
+            check(stamped.insert(k, "v" + k) == reference.insert(k, "v" + k), "StampedAVLTree.insert", k);
+        }
+        for (int k : keys) {
+            if (!map.containsKey(k)) {
+                check(stamped.delete(k) == reference.delete(k), "StampedAVLTree.delete", k);
+            }
+        }
+        AVLTree.StampedAVLTree t = stamped;
+        checkInfos("StampedAVLTree", map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    /**
+     * a PersistentAVLTree given the inserts of keys and the deletes of the keys missing from map
+     * must give map, with AVLTree's rotation counts. the snapshots taken on the way must not change
+     */
+    private static void verifyPersistent(int[] keys, TreeMap<Integer, String> map) {
+        AVLTree.PersistentAVLTree tree = new AVLTree.PersistentAVLTree();
+        AVLTree reference = new AVLTree();
+        TreeMap<Integer, String> half = new TreeMap<>();
+        AVLTree.PersistentAVLTree.Snapshot empty = tree.snapshot();
+        AVLTree.PersistentAVLTree.Snapshot halfway = null;
+        for (int i = 0; i < keys.length; i++) {
+            int k = keys[i];
+            if (i == keys.length / 2) {
+                halfway = tree.snapshot();
+            }
+            check(tree.insert(k, "v" + k) == reference.insert(k, "v" + k), "PersistentAVLTree.insert", k);
+            if (i < keys.length / 2) {
+                half.put(k, "v" + k);
+            }
+        }
+        for (int k : keys) {
+            if (!map.containsKey(k)) {
+                check(tree.delete(k) == reference.delete(k), "PersistentAVLTree.delete", k);
+            }
+        }
+        check(tree.size() == map.size() && tree.empty() == map.isEmpty(), "PersistentAVLTree.size", map.size());
+        checkSnapshot(tree.snapshot(), map);
+        checkSnapshot(empty, new TreeMap<>());
+        if (halfway != null) {
+            checkSnapshot(halfway, half);
+        }
+    }
+
+    static void checkSnapshot(AVLTree.PersistentAVLTree.Snapshot t, TreeMap<Integer, String> map) {
+        checkInfos("PersistentAVLTree.Snapshot", map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    /** a WideNodeTree given the inserts of keys and the deletes of the keys missing from map must give map */
+    private static void verifyWide(int[] keys, TreeMap<Integer, String> map) {
+        AVLTree.WideNodeTree tree = new AVLTree.WideNodeTree();
+        TreeMap<Integer, String> all = new TreeMap<>();
+        for (int k : keys) {
+            check((tree.insert(k, "v" + k) == -1) == all.containsKey(k), "WideNodeTree.insert", k);
+            all.put(k, "v" + k);
+        }
+        checkWide(tree, all);
+        for (int k : keys) {
+            if (!map.containsKey(k)) {
+                check((tree.delete(k) == -1) == !all.containsKey(k), "WideNodeTree.delete", k);
+                all.remove(k);
+            }
+        }
+        checkWide(tree, map);
+        for (int k : map.keySet()) {
+            check(tree.delete(k) == 0, "WideNodeTree.delete", k);
+        }
+        checkWide(tree, new TreeMap<>());
+    }
+
+    static void checkWide(AVLTree.WideNodeTree t, TreeMap<Integer, String> map) {
+        checkInfos("WideNodeTree", map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    /**
+     * a ShardedAVLTree given the inserts of keys and the deletes of the keys missing from map must give map.
+     * the keys start out in one or two of the shards, so the shards get rebalanced on the way
+     */
+    private static void verifySharded(int[] keys, TreeMap<Integer, String> map) {
+        AVLTree.ShardedAVLTree tree = new AVLTree.ShardedAVLTree(8);
+        TreeMap<Integer, String> all = new TreeMap<>();
+        for (int k : keys) {
+            check((tree.insert(k, "v" + k) == -1) == all.containsKey(k), "ShardedAVLTree.insert", k);
+            all.put(k, "v" + k);
+        }
+        for (int k : keys) {
+            if (!map.containsKey(k)) {
+                check((tree.delete(k) == -1) == !all.containsKey(k), "ShardedAVLTree.delete", k);
+                all.remove(k);
+            }
+        }
+        check(tree.size() == map.size() && tree.empty() == map.isEmpty(), "ShardedAVLTree.size", map.size());
+        long sum = 0;
+        int i = 0;
+        for (Map.Entry<Integer, String> e : map.entrySet()) {
+            int k = e.getKey();
+            i++;
+            sum += k;
+            check(e.getValue().equals(tree.search(k)), "ShardedAVLTree.search", k);
+            check(Objects.equals(tree.search(k + 1), map.get(k + 1)), "ShardedAVLTree.search", k + 1);
+            check(e.getValue().equals(tree.select(i)), "ShardedAVLTree.select", i);
+            check(tree.less(k) == sum, "ShardedAVLTree.less", k);
+        }
+        check(tree.select(0) == null && tree.select(i + 1) == null, "ShardedAVLTree.select", i + 1);
+    }
+
+    /**
+     * inserts keys into the primitive trees and an AVLTree, deletes deletes random ones of them,
+     * and checks the trees against a TreeMap. the rotation counts must be AVLTree's.
+     * the long trees get the keys spread over the long range by wide
+     */
+    private static void verifyPrimitive(int[] keys, int deletes) throws IOException {
+        Path file = Files.createTempFile("avltree", ".avl");
+        AVLTree reference = new AVLTree();
+        AVLTree.IntIntAVLTree ints = new AVLTree.IntIntAVLTree();
+        AVLTree.LongLongAVLTree longs = new AVLTree.LongLongAVLTree();
+        AVLTree.LongObjAVLTree<String> objs = new AVLTree.LongObjAVLTree<>();
+        AVLTree.PooledAVLTree pooled = new AVLTree.PooledAVLTree();
+        AVLTree.OffHeapAVLTree offHeap = new AVLTree.OffHeapAVLTree();
+        AVLTree.MappedAVLTree mapped = new AVLTree.MappedAVLTree(file);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        Random random = new Random(2);
+        for (int k : keys) {
+            long w = wide(k);
+            int rotations = reference.insert(k, "");
+            check(ints.insert(k, ~k) == rotations, "IntIntAVLTree.insert", k);
+            check(longs.insert(w, ~w) == rotations, "LongLongAVLTree.insert", w);
+            check(objs.insert(w, "v" + w) == rotations, "LongObjAVLTree.insert", w);
+            check(pooled.insert(k, "v" + k) == rotations, "PooledAVLTree.insert", k);
+            check(offHeap.insert(k, "v" + k) == rotations, "OffHeapAVLTree.insert", k);
+            check(mapped.insert(k, "v" + k) == rotations, "MappedAVLTree.insert", k);
+            map.putIfAbsent(k, "v" + k);
+        }
+        checkPrimitive(ints, longs, objs, map);
+        checkPooled(pooled, map);
+        checkOffHeap(offHeap, map);
+        for (int i = 0; i < deletes; i++) {
+            int k = keys[random.nextInt(keys.length)];
+            long w = wide(k);
+            int rotations = reference.delete(k);
+            map.remove(k);
+            check(ints.delete(k) == rotations, "IntIntAVLTree.delete", k);
+            check(longs.delete(w) == rotations, "LongLongAVLTree.delete", w);
+            check(objs.delete(w) == rotations, "LongObjAVLTree.delete", w);
+            check(pooled.delete(k) == rotations, "PooledAVLTree.delete", k);
+            check(offHeap.delete(k) == rotations, "OffHeapAVLTree.delete", k);
+            check(mapped.delete(k) == rotations, "MappedAVLTree.delete", k);
+        }
+        checkPrimitive(ints, longs, objs, map);
+        checkPooled(pooled, map);
+        checkOffHeap(offHeap, map);
+        checkOffHeap(mapped, map);
+        mapped.close();
+        mapped = new AVLTree.MappedAVLTree(file);
+        checkOffHeap(mapped, map);
+        mapped.close();
+        deleteTree(file);
+    }
+
+    static void deleteTree(Path file) throws IOException {
+        Files.delete(file);
+        Files.delete(file.resolveSibling(file.getFileName() + ".info"));
+    }
+
+    /**
+     * a MappedAVLTree that throws from inside an update when fuse counts down to 0,
+     * it is then dropped without close, as after a crash of the process
+     */
+    private static class CrashingTree extends AVLTree.MappedAVLTree {
+
+        int fuse = -1;
+
+        CrashingTree(Path file) throws IOException {
+            super(file);
+        }
+
+        private void burn() {
+            if (fuse >= 0 && fuse-- == 0) {
+                throw new Error("crash");
+            }
+        }
+
+        void setParent(int n, int parent) {
+            burn();
+            super.setParent(n, parent);
+        }
+
+        void setHeight(int n, int height) {
+            burn();
+            super.setHeight(n, height);
+        }
+    }
+
+    /** random inserts and deletes that crash now and then, reopening must roll the interrupted one back */
+    private static void verifyCrashes() throws IOException {
+        Path file = Files.createTempFile("avltree", ".avl");
+        Random random = new Random(7);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        CrashingTree tree = new CrashingTree(file);
+        int crashes = 0;
+        for (int op = 0; op < 100000; op++) {
+            int k = random.nextInt(5000);
+            String info = "v" + k + "-" + op;
+            boolean insert = random.nextInt(3) > 0;
+            tree.fuse = (random.nextInt(50) == 0) ? random.nextInt(12) : -1;
+            try {
+                if (insert) {
+                    tree.insert(k, info);
+                    map.putIfAbsent(k, info);
+                }
+                else {
+                    tree.delete(k);
+                    map.remove(k);
+                }
+            }
+            catch (Error e) {
+                crashes++;
+                tree.fuse = -1;
+                try {
+                    tree.insert(k, info);
+                    check(false, "MappedAVLTree.insert after a failed update", k);
+                }
+                catch (IllegalStateException expected) {
+                    // refused until the file is opened again
+                }
+                tree = new CrashingTree(file);
+                checkOffHeap(tree, map);
+            }
+        }
+        checkOffHeap(tree, map);
+        tree.close();
+        deleteTree(file);
+        System.out.println("verify " + crashes + " crashed updates OK");
+    }
+
+    /** SnapshotFile.write of a tree holding map, or of its arrays, must read back as map */
+    private static void verifySnapshot(TreeMap<Integer, String> map) throws IOException {
+        Path file = Files.createTempFile("avltree", ".snap");
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        String[] infos = map.values().toArray(new String[0]);
+        AVLTree.SnapshotFile.write(AVLTree.fromSorted(keys, infos), file);
+        byte[] bytes = Files.readAllBytes(file);
+        checkSame(AVLTree.SnapshotFile.read(file), map);
+        AVLTree.SnapshotFile.write(keys, infos, file);
+        check(Arrays.equals(Files.readAllBytes(file), bytes), "SnapshotFile.write", keys.length);
+        checkSame(AVLTree.SnapshotFile.read(file), map);
+        Files.delete(file);
+    }
+
+    /**
+     * a tree with an InfoDictionary, given infos from 100 distinct strings, must hold the same items
+     * as without it but one String per distinct info, and so must the trees split, join
+     * and SnapshotFile.read make from it
+     */
+    private static void verifyDictionary(int[] keys, TreeMap<Integer, String> map) throws IOException {
+        AVLTree.InfoDictionary dictionary = new AVLTree.InfoDictionary();
+        AVLTree tree = new AVLTree();
+        tree.setInfoDictionary(dictionary);
+        TreeMap<Integer, String> infos = new TreeMap<>();
+        for (int k : map.keySet()) {
+            String info = "w" + Math.floorMod(k, 100);
+            tree.insert(k, new String(info));
+            infos.put(k, info);
+        }
+        checkSame(tree, infos);
+        checkShared(tree, dictionary);
+        if (!map.isEmpty()) {
+            Integer middle = infos.ceilingKey(keys[keys.length / 2]);
+            int k = (middle != null) ? middle : infos.lastKey();
+            AVLTree[] halves = tree.split(k);
+            if (halves[0].insert(Integer.MIN_VALUE, new String("w")) >= 0) {
+                infos.put(Integer.MIN_VALUE, "w");
+            }
+            if (halves[1].insert(Integer.MAX_VALUE, new String("w")) >= 0) {
+                infos.put(Integer.MAX_VALUE, "w");
+            }
+            tree = AVLTree.join(halves[0], k, new String(infos.get(k)), halves[1]);
+            checkSame(tree, infos);
+            checkShared(tree, dictionary);
+        }
+        Path file = Files.createTempFile("avltree", ".snap");
+        AVLTree.SnapshotFile.write(tree, file);
+        AVLTree.InfoDictionary fresh = new AVLTree.InfoDictionary();
+        AVLTree read = AVLTree.SnapshotFile.read(file, fresh);
+        checkSame(read, infos);
+        checkShared(read, fresh);
+        Files.delete(file);
+    }
+
+    /** every info of tree must be the dictionary's instance */
+    static void checkShared(AVLTree tree, AVLTree.InfoDictionary dictionary) {
+        String[] infos = tree.infoToArray();
+        check(dictionary.size() <= 101, "InfoDictionary.size", dictionary.size());
+        for (int i = 0; i < infos.length; i++) {
+            check(infos[i] == dictionary.intern(new String(infos[i])), "InfoDictionary.intern", i);
+        }
+    }
+
+    /** keys around -1 and the ends of the int range must behave as any other key */
+    private static void verifyNegativeKeys() {
+        int[] keys = new int[4000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i - 2000;
+        }
+        keys[0] = Integer.MIN_VALUE;
+        keys[1] = Integer.MAX_VALUE;
+        shuffle(keys, new Random(5));
+        AVLTree tree = new AVLTree();
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int k : keys) {
+            tree.insert(k, "v" + k);
+            map.put(k, "v" + k);
+        }
+        checkSame(tree, map);
+        check(walk(tree.getRoot()) == map.keySet().stream().mapToLong(Integer::longValue).sum(), "isRealNode", -1);
+        for (int k : new int[] {-1, -2, 0, Integer.MIN_VALUE}) {
+            tree.delete(k);
+            map.remove(k);
+        }
+        checkSame(tree, map);
+        check(walk(tree.getRoot()) == map.keySet().stream().mapToLong(Integer::longValue).sum(), "isRealNode", -1);
+        System.out.println("verify negative keys OK");
+    }
+
+    /**
+     * a snapshot with null infos and extreme keys must read back, every flipped bit and every cut
+     * must be refused, and a write that throws must leave the old snapshot and no temp file
+     */
+    private static void verifySnapshotDamage() throws IOException {
+        Path file = Files.createTempFile("avltree", ".snap");
+        int[] keys = {Integer.MIN_VALUE, -100, -1, 0, 7, 300, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+        String[] infos = {"min", null, "", "v0", "\u00fc7", null, "x".repeat(200), "max"};
+        AVLTree.SnapshotFile.write(keys, infos, file);
+        AVLTree back = AVLTree.SnapshotFile.read(file);
+        check(Arrays.equals(back.keysToArray(), keys) && Arrays.equals(back.infoToArray(), infos), "SnapshotFile.read", keys.length);
+        byte[] good = Files.readAllBytes(file);
+        for (int pos = 0; pos < good.length; pos++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] bad = good.clone();
+                bad[pos] ^= (byte) (1 << bit);
+                checkRefused(file, bad, pos);
+            }
+        }
+        for (int length = 0; length <= good.length + 1; length++) {
+            if (length != good.length) {
+                checkRefused(file, Arrays.copyOf(good, length), length);
+            }
+        }
+        Files.write(file, good);
+        try {
+            AVLTree.SnapshotFile.write(new int[] {1, 1}, new String[] {"a", "b"}, file);
+            check(false, "SnapshotFile.write of repeated keys", 1);
+        }
+        catch (IllegalArgumentException expected) {
+            // refused before anything replaced file
+        }
+        check(Arrays.equals(Files.readAllBytes(file), good), "SnapshotFile.write of repeated keys", 1);
+        check(!Files.exists(file.resolveSibling(file.getFileName() + ".tmp")), "SnapshotFile.write of repeated keys", 1);
+        Files.delete(file);
+        System.out.println("verify damaged snapshots OK");
+    }
+
+    /** SnapshotFile.read of bytes must throw IOException */
+    static void checkRefused(Path file, byte[] bytes, long arg) throws IOException {
+        Files.write(file, bytes);
+        try {
+            AVLTree.SnapshotFile.read(file);
+            check(false, "SnapshotFile.read of a damaged file", arg);
+        }
+        catch (IOException expected) {
+            // refused
+        }
+    }
+
+    /**
+     * a LoggedAVLTree given the inserts of keys and the deletes of the keys missing from map
+     * (after a checkpoint) must give map, and so must opening it again without closing it,
+     * as after a crash of the process. a torn last record must be dropped
+     */
+    private static void verifyLogged(int[] keys, TreeMap<Integer, String> map) throws IOException {
+        Path file = Files.createTempFile("avltree", ".ckpt");
+        Files.delete(file);
+        AVLTree.LoggedAVLTree tree = new AVLTree.LoggedAVLTree(file);
+        AVLTree reference = new AVLTree();
+        for (int k : keys) {
+            check(tree.insert(k, "v" + k) == reference.insert(k, "v" + k), "LoggedAVLTree.insert", k);
+        }
+        tree.checkpoint();
+        for (int k : keys) {
+            if (!map.containsKey(k)) {
+                check(tree.delete(k) == reference.delete(k), "LoggedAVLTree.delete", k);
+            }
+        }
+        checkLogged(tree, map);
+        tree = new AVLTree.LoggedAVLTree(file);
+        checkLogged(tree, map);
+        int k = map.isEmpty() ? 0 : map.lastKey() + 1;
+        tree.insert(k, "v" + k);
+        tree.close();
+        Path log = file.resolveSibling(file.getFileName() + ".log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        tree = new AVLTree.LoggedAVLTree(file);
+        checkLogged(tree, map);
+        tree.checkpoint();
+        tree.close();
+        tree = new AVLTree.LoggedAVLTree(file);
+        checkLogged(tree, map);
+        tree.close();
+        deleteLogged(file);
+    }
+
+    static void checkLogged(AVLTree.LoggedAVLTree t, TreeMap<Integer, String> map) {
+        checkInfos("LoggedAVLTree", map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    static void deleteLogged(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".log"));
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".tmp"));
+    }
+
+    /**
+     * a LoggedAVLTree whose log write fails when fuse counts down to 0,
+     * after writing a random part of the records, as when the disk fills up
+     */
+    private static class FailingLog extends AVLTree.LoggedAVLTree {
+
+        int fuse = -1;
+        final Random random = new Random(11);
+
+        FailingLog(Path file) throws IOException {
+            super(file);
+        }
+
+        void write(ByteBuffer records) throws IOException {
+            if (fuse >= 0 && fuse-- == 0) {
+                records.limit(records.position() + random.nextInt(records.remaining()));
+                super.write(records);
+                throw new IOException("no space left on device");
+            }
+            super.write(records);
+        }
+    }
+
+    /**
+     * random inserts and deletes whose log write fails now and then: the tree must then refuse
+     * every update and checkpoint, and opening it again must give the changes that returned
+     */
+    private static void verifyLogFailures() throws IOException {
+        Path file = Files.createTempFile("avltree", ".ckpt");
+        Files.delete(file);
+        Random random = new Random(7);
+        TreeMap<Integer, String> map = new TreeMap<>();
+        FailingLog tree = new FailingLog(file);
+        int failures = 0;
+        for (int op = 0; op < 20000; op++) {
+            int k = random.nextInt(2000);
+            String info = "v" + k + "-" + op;
+            boolean insert = random.nextInt(3) > 0;
+            tree.fuse = (random.nextInt(100) == 0) ? 0 : -1;
+            try {
+                if (insert) {
+                    tree.insert(k, info);
+                    map.putIfAbsent(k, info);
+                }
+                else {
+                    tree.delete(k);
+                    map.remove(k);
+                }
+            }
+            catch (UncheckedIOException e) {
+                failures++;
+                FailingLog failed = tree;
+                checkRefused(() -> failed.insert(k + 1, info), "LoggedAVLTree.insert after a failed write", k);
+                checkRefused(() -> failed.delete(k), "LoggedAVLTree.delete after a failed write", k);
+                checkRefused(() -> {
+                    try {
+                        failed.checkpoint();
+                    }
+                    catch (IOException unexpected) {
+                        throw new UncheckedIOException(unexpected);
+                    }
+                }, "LoggedAVLTree.checkpoint after a failed write", k);
+                tree.close();
+                tree = new FailingLog(file);
+                checkLogged(tree, map);
+            }
+            tree.fuse = -1;
+            if (op % 5000 == 4999) {
+                tree.checkpoint();
+            }
+        }
+        checkLogged(tree, map);
+        tree.close();
+        deleteLogged(file);
+        System.out.println("verify " + failures + " failed log writes OK");
+    }
+
+    static void checkRefused(Runnable update, String op, long arg) {
+        try {
+            update.run();
+            check(false, op, arg);
+        }
+        catch (IllegalStateException expected) {
+            // refused until the tree is opened again
+        }
+    }
+
+    /**
+     * 4 threads insert and delete keys of their own into one LoggedAVLTree with a commit delay,
+     * so their records are forced together. opening it again without closing it must give every change
+     */
+    private static void verifyGroupCommit() throws IOException {
+        Path file = Files.createTempFile("avltree", ".ckpt");
+        Files.delete(file);
+        AVLTree.LoggedAVLTree tree = new AVLTree.LoggedAVLTree(file, 50_000);
+        int count = 4;
+        List<TreeMap<Integer, String>> maps = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < count; t++) {
+            int id = t;
+            TreeMap<Integer, String> own = new TreeMap<>();
+            maps.add(own);
+            Thread thread = new Thread(() -> {
+                Random random = new Random(id);
+                for (int op = 0; op < 2000; op++) {
+                    int k = random.nextInt(1000) * count + id;
+                    if (random.nextInt(3) > 0) {
+                        String info = "v" + k + "-" + op;
+                        if (tree.insert(k, info) >= 0) {
+                            own.put(k, info);
+                        }
+                    }
+                    else {
+                        tree.delete(k);
+                        own.remove(k);
+                    }
+                }
+            });
+            thread.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+            threads.add(thread);
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("group commit", failure.get());
+        }
+        TreeMap<Integer, String> map = new TreeMap<>();
+        maps.forEach(map::putAll);
+        checkLogged(tree, map);
+        AVLTree.LoggedAVLTree reopened = new AVLTree.LoggedAVLTree(file);
+        checkLogged(reopened, map);
+        reopened.close();
+        tree.close();
+        deleteLogged(file);
+        System.out.println("verify group commit OK");
+    }
+
+    private static void verifyConcurrent() {
+        verifyConcurrent("StampedAVLTree", shared(new AVLTree.StampedAVLTree()));
+        verifyConcurrent("ShardedAVLTree", shared(new AVLTree.ShardedAVLTree(16)));
+    }
+
+    /**
+     * a writer inserts and deletes odd keys of a tree of even keys while two readers
+     * check that every even key and every rank up to the number of even keys is always found,
+     * each reader going twice through the ranks
+     */
+    private static void verifyConcurrent(String name, Shared tree) {
+        int n = 1 << 14;
+        for (int i = 0; i < n; i++) {
+            tree.insert(2 * i, "v" + 2 * i);
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            Random random = new Random(9);
+            while (!done.get()) {
+                int k = 2 * random.nextInt(n) + 1;
+                if (random.nextBoolean()) {
+                    tree.insert(k, "v" + k);
+                }
+                else {
+                    tree.delete(k);
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            long seed = r;
+            readers.add(new Thread(() -> {
+                Random random = new Random(seed);
+                for (int step = 0; step < 2 * n && !done.get(); step++) {
+                    int k = 2 * random.nextInt(n);
+                    check(("v" + k).equals(tree.search(k)), name + ".search", k);
+                    String odd = tree.search(k + 1);
+                    check(odd == null || odd.equals("v" + (k + 1)), name + ".search", k + 1);
+                    int rank = 1 + step % n; // ranks in order, to pass the ends of the shards
+                    check(tree.select(rank) != null, name + ".select", rank);
+                    check(tree.size() >= n, name + ".size", n);
+                }
+            }));
+        }
+        List<Thread> threads = new ArrayList<>(readers);
+        threads.add(writer);
+        for (Thread t : threads) {
+            t.setUncaughtExceptionHandler((thread, e) -> {
+                failure.compareAndSet(null, e);
+                done.set(true);
+            });
+            t.start();
+        }
+        try {
+            for (Thread t : readers) {
+                t.join();
+            }
+            done.set(true);
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("concurrent " + name, failure.get());
+        }
+        System.out.println("verify concurrent " + name + " OK");
+    }
+
+    /** an insert that cannot get a node record must leave an OffHeapAVLTree and its info arena as they were */
+    private static void verifyFailedAllocation() {
+        AVLTree.OffHeapAVLTree tree = new AVLTree.OffHeapAVLTree() {
+            ByteBuffer newNodeChunk(int index) {
+                if (index > 0) {
+                    throw new OutOfMemoryError("no second chunk");
+                }
+                return super.newNodeChunk(index);
+            }
+        };
+        TreeMap<Integer, String> map = new TreeMap<>();
+        int k = 0;
+        try {
+            for (; ; k++) {
+                tree.insert(k, "v" + k);
+                map.put(k, "v" + k);
+            }
+        }
+        catch (OutOfMemoryError expected) {
+            // the first chunk is full
+        }
+        long tail = tree.valueTail;
+        try {
+            tree.insert(k, "v" + k);
+            check(false, "OffHeapAVLTree.insert", k);
+        }
+        catch (OutOfMemoryError expected) {
+            check(tree.valueTail == tail, "OffHeapAVLTree.insert", k);
+        }
+        checkOffHeap(tree, map);
+        check(tree.delete(0) >= 0 && tree.insert(k, "v" + k) >= 0, "OffHeapAVLTree.insert", k);
+        map.remove(0);
+        map.put(k, "v" + k);
+        checkOffHeap(tree, map);
+        System.out.println("verify failed allocation OK");
+    }
+
+    /** an order preserving map of int keys onto long keys that do not fit in an int */
+    static long wide(int k) {
+        return ((long) k << 31) | 5;
+    }
+
+    private static void checkPrimitive(AVLTree.IntIntAVLTree ints, AVLTree.LongLongAVLTree longs,
+            AVLTree.LongObjAVLTree<String> objs, TreeMap<Integer, String> map) {
+        int size = map.size();
+        check(ints.size() == size && longs.size() == size && objs.size() == size, "size", size);
+        check(ints.empty() == map.isEmpty() && objs.empty() == map.isEmpty(), "empty", size);
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        long[] wides = Arrays.stream(keys).mapToLong(AVLTreeBench::wide).toArray();
+        check(Arrays.equals(ints.keysToArray(), keys), "IntIntAVLTree.keysToArray", size);
+        check(Arrays.equals(ints.valuesToArray(), Arrays.stream(keys).map(k -> ~k).toArray()),
+                "IntIntAVLTree.valuesToArray", size);
+        check(Arrays.equals(longs.keysToArray(), wides), "LongLongAVLTree.keysToArray", size);
+        check(Arrays.equals(longs.valuesToArray(), Arrays.stream(wides).map(w -> ~w).toArray()),
+                "LongLongAVLTree.valuesToArray", size);
+        check(Arrays.equals(objs.keysToArray(), wides), "LongObjAVLTree.keysToArray", size);
+        check(Arrays.equals(objs.valuesToArray(), Arrays.stream(wides).mapToObj(w -> "v" + w).toArray()),
+                "LongObjAVLTree.valuesToArray", size);
+        long sum = 0;
+        long wideSum = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int k = keys[i];
+            long w = wides[i];
+            sum += k;
+            wideSum += w;
+            check(ints.search(k, 0) == ~k && ints.containsKey(k), "IntIntAVLTree.search", k);
+            check(ints.search(k + 1, 7) == (map.containsKey(k + 1) ? ~(k + 1) : 7), "IntIntAVLTree.search", k + 1);
+            check(longs.search(w, 0) == ~w && longs.search(w + 1, 7) == 7, "LongLongAVLTree.search", w);
+            check(("v" + w).equals(objs.search(w)) && objs.search(w + 1) == null, "LongObjAVLTree.search", w);
+            check(ints.select(i + 1) == ~k && ints.selectKey(i + 1) == k, "IntIntAVLTree.select", i + 1);
+            check(longs.select(i + 1) == ~w && longs.selectKey(i + 1) == w, "LongLongAVLTree.select", i + 1);
+            check(("v" + w).equals(objs.select(i + 1)) && objs.selectKey(i + 1) == w, "LongObjAVLTree.select", i + 1);
+            check(ints.less(k) == sum, "IntIntAVLTree.less", k);
+            check(longs.less(w) == wideSum && objs.less(w) == wideSum, "LongLongAVLTree.less", w);
+        }
+        check(objs.select(0) == null && objs.select(size + 1) == null, "LongObjAVLTree.select", size + 1);
+    }
+
+    /** checkSame for the trees with AVLTree's operations but not its type, given by their methods */
+    private static void checkInfos(String name, TreeMap<Integer, String> map, int size, boolean empty,
+            Supplier<int[]> keysToArray, Supplier<String[]> infoToArray, IntFunction<String> search,
+            IntFunction<String> select, IntToLongFunction less, Supplier<String> min, Supplier<String> max) {
+        check(size == map.size() && empty == map.isEmpty(), name + ".size", map.size());
+        int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+        check(Arrays.equals(keysToArray.get(), keys), name + ".keysToArray", keys.length);
+        check(Arrays.equals(infoToArray.get(), map.values().toArray(new String[0])), name + ".infoToArray", keys.length);
+        long sum = 0;
+        int i = 0;
+        for (Map.Entry<Integer, String> e : map.entrySet()) {
+            int k = e.getKey();
+            i++;
+            sum += k;
+            check(e.getValue().equals(search.apply(k)), name + ".search", k);
+            check(Objects.equals(search.apply(k + 1), map.get(k + 1)), name + ".search", k + 1);
+            check(e.getValue().equals(select.apply(i)), name + ".select", i);
+            check(less.applyAsLong(k) == sum, name + ".less", k);
+        }
+        check(select.apply(0) == null && select.apply(i + 1) == null, name + ".select", i + 1);
+        check(Objects.equals(min.get(), map.isEmpty() ? null : map.firstEntry().getValue()), name + ".min", i);
+        check(Objects.equals(max.get(), map.isEmpty() ? null : map.lastEntry().getValue()), name + ".max", i);
+    }
+
+    static void checkPooled(AVLTree.PooledAVLTree t, TreeMap<Integer, String> map) {
+        checkInfos("PooledAVLTree", map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    static void checkOffHeap(AVLTree.OffHeapAVLTree t, TreeMap<Integer, String> map) {
+        checkInfos(t.getClass().getSimpleName(), map, t.size(), t.empty(), t::keysToArray, t::infoToArray,
+                t::search, t::select, t::less, t::min, t::max);
+    }
+
+    static void check(boolean ok, String op, long arg) {
+        if (!ok) {
+            throw new AssertionError(op + "(" + arg + ") differs from java.util.TreeMap");
+        }
+    }
+
+
+                        /////////// Time ///////////
+
+
+    private static void ranks(int n, int rounds) {
+        AVLTree tree = build(keys(n, "random", 1), new String[n]);
+        int[] sorted = tree.keysToArray();
+        Random random = new Random(6);
+        int band = Math.max(1, n / 100);
+        for (int from : new int[] {0, n / 2 - band / 2, n - band}) {
+            int[] ranks = new int[OPS];
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = 1 + from + random.nextInt(band);
+            }
+            String label = "ranks " + n + " from " + (from + 1);
+            measure(label, "select", rounds, OPS, () -> () -> {
+                long s = 0;
+                for (int r : ranks) {
+                    s += tree.selectNode(r).getKey();
+                }
+                return s;
+            });
+            measure(label, "rank", rounds, OPS, () -> () -> {
+                long s = 0;
+                for (int r : ranks) {
+                    s += tree.rank(sorted[r - 1]);
+                }
+                return s;
+            });
+        }
+    }
+
+    private static void wide(int n, String dist, int rounds) {
+        int[] keys = keys(n, dist, 1);
+        int[] probes = probes(keys, OPS, dist);
+        int[] ranks = new int[OPS];
+        Random random = new Random(4);
+        String label = dist + " " + n;
+        {
+            AVLTree[] tree = new AVLTree[1];
+            measure(label + " AVLTree", "insert", 1, n, () -> () -> {
+                tree[0] = null;
+                tree[0] = new AVLTree();
+                long s = 0;
+                for (int k : keys) {
+                    s += tree[0].insert(k, "v");
+                }
+                return s;
+            });
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = 1 + random.nextInt(tree[0].size());
+            }
+            lookups(label + " AVLTree", rounds, probes, ranks, tree[0]::search, tree[0]::select, tree[0]::less);
+        }
+        AVLTree.WideNodeTree[] tree = new AVLTree.WideNodeTree[1];
+        measure(label + " WideNodeTree", "insert", 1, n, () -> () -> {
+            tree[0] = null;
+            tree[0] = new AVLTree.WideNodeTree();
+            long s = 0;
+            for (int k : keys) {
+                s += tree[0].insert(k, "v");
+            }
+            return s;
+        });
+        lookups(label + " WideNodeTree", rounds, probes, ranks, tree[0]::search, tree[0]::select, tree[0]::less);
+    }
+
+    static void lookups(String label, int rounds, int[] probes, int[] ranks,
+            IntFunction<String> search, IntFunction<String> select, IntToLongFunction less) {
+        measure(label, "search", rounds, probes.length, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += (search.apply(k) == null) ? 0 : 1;
+            }
+            return s;
+        });
+        measure(label, "select", rounds, ranks.length, () -> () -> {
+            long s = 0;
+            for (int r : ranks) {
+                s += (select.apply(r) == null) ? 0 : 1;
+            }
+            return s;
+        });
+        measure(label, "less", rounds, probes.length, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += less.applyAsLong(k);
+            }
+            return s;
+        });
+    }
+
+    private static void listener(int n, String dist, int rounds) {
+        int[] keys = keys(n, dist, 1);
+        String[] infos = new String[n];
+        for (int i = 0; i < n; i++) {
+            infos[i] = "v" + keys[i];
+        }
+        int[] probes = probes(keys, OPS, dist);
+        int trees = Math.max(1, OPS / n);
+        for (AVLTree.Metrics metrics : Arrays.asList(null, new AVLTree.Metrics())) {
+            String label = dist + " " + n + ((metrics == null) ? " no listener" : " Metrics");
+            measure(label, "insert", rounds, (long) trees * n, () -> () -> {
+                long s = 0;
+                for (int t = 0; t < trees; t++) {
+                    AVLTree tree = new AVLTree();
+                    tree.setListener(metrics);
+                    for (int i = 0; i < n; i++) {
+                        s += tree.insert(keys[i], infos[i]);
+                    }
+                }
+                return s;
+            });
+            AVLTree tree = build(keys, infos);
+            tree.setListener(metrics);
+            measure(label, "search", rounds, OPS, () -> () -> {
+                long s = 0;
+                for (int k : probes) {
+                    s += (tree.search(k) == null) ? 0 : 1;
+                }
+                return s;
+            });
+            measure(label, "delete", rounds, (long) trees * n, () -> {
+                AVLTree[] built = new AVLTree[trees];
+                for (int t = 0; t < trees; t++) {
+                    built[t] = build(keys, infos);
+                    built[t].setListener(metrics);
+                }
+                return () -> {
+                    long s = 0;
+                    for (AVLTree t : built) {
+                        for (int i = 0; i < n; i++) {
+                            s += t.delete(keys[i]);
+                        }
+                    }
+                    return s;
+                };
+            });
+        }
+    }
+
+    /** the operations of a tree that threads share, for verifyConcurrent and the threads mode */
+    interface Shared {
+
+        public String search(int k);
+
+        public String select(int i);
+
+        public int size();
+
+        public int insert(int k, String i);
+
+        public int delete(int k);
+    }
+
+    /** one measured run, returns a value which is kept so the work is not optimized away */
+    interface Run {
+
+        public long run();
+    }
+
+    /** the sum of the keys under x, walking the nodes as a user of IAVLNode does */
+    static long walk(AVLTree.IAVLNode x) {
+        if (!x.isRealNode()) {
+            return 0;
+        }
+        return walk(x.getLeft()) + x.getKey() + walk(x.getRight());
+    }
+
+    private static void time(int n, String dist, int rounds) {
+        int[] keys = keys(n, dist, 1);
+        String[] infos = new String[n];
+        for (int i = 0; i < n; i++) {
+            infos[i] = "v" + keys[i];
+        }
+        String label = dist + " " + n;
+        int trees = Math.max(1, OPS / n); // so that a run does at least OPS operations
+        measure(label, "insert", rounds, (long) trees * n, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < trees; t++) {
+                AVLTree tree = new AVLTree();
+                for (int i = 0; i < n; i++) {
+                    s += tree.insert(keys[i], infos[i]);
+                }
+            }
+            return s;
+        });
+        measure(label, "insertMinKey", rounds, (long) trees * n, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < trees; t++) {
+                AVLTree tree = new AVLTree(AVLTree.Aggregate.MIN_KEY);
+                for (int i = 0; i < n; i++) {
+                    s += tree.insert(keys[i], infos[i]);
+                }
+            }
+            return s;
+        });
+        measure(label, "delete", rounds, (long) trees * n, () -> {
+            AVLTree[] built = new AVLTree[trees];
+            for (int t = 0; t < trees; t++) {
+                built[t] = build(keys, infos);
+            }
+            return () -> {
+                long s = 0;
+                for (AVLTree tree : built) {
+                    for (int i = 0; i < n; i++) {
+                        s += tree.delete(keys[i]);
+                    }
+                }
+                return s;
+            };
+        });
+        int[] sorted = Arrays.stream(keys).sorted().distinct().toArray();
+        String[] sortedInfos = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sortedInfos[i] = "v" + sorted[i];
+        }
+        int bulkTrees = Math.max(1, OPS / sorted.length);
+        measure(label, "insertSorted", rounds, (long) bulkTrees * sorted.length, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < bulkTrees; t++) {
+                s += build(sorted, sortedInfos).size();
+            }
+            return s;
+        });
+        measure(label, "append", rounds, (long) bulkTrees * sorted.length, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < bulkTrees; t++) {
+                AVLTree tree = new AVLTree();
+                for (int i = 0; i < sorted.length; i++) {
+                    s += tree.append(sorted[i], sortedInfos[i]);
+                }
+            }
+            return s;
+        });
+        measure(label, "fromSorted", rounds, (long) bulkTrees * sorted.length, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < bulkTrees; t++) {
+                s += AVLTree.fromSorted(sorted, sortedInfos).size();
+            }
+            return s;
+        });
+        AVLTree tree = build(keys, infos);
+        int size = tree.size();
+        int[] probes = probes(keys, OPS, dist);
+        int[] ranks = new int[OPS];
+        Random random = new Random(4);
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = 1 + random.nextInt(size);
+        }
+        measure(label, "search", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += (tree.search(k) == null) ? 0 : 1;
+            }
+            return s;
+        });
+        measure(label, "ceiling", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                AVLTree.IAVLNode x = tree.ceiling(k + 1); // a key or the gap after one
+                s += (x == null) ? 0 : x.getKey();
+            }
+            return s;
+        });
+        measure(label, "select", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int r : ranks) {
+                s += (tree.select(r) == null) ? 0 : 1;
+            }
+            return s;
+        });
+        measure(label, "less", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += tree.less(k);
+            }
+            return s;
+        });
+        int copies = Math.max(1, (1 << 22) / size);
+        measure(label, "keysToArray", rounds, copies, () -> () -> {
+            long s = 0;
+            for (int i = 0; i < copies; i++) {
+                s += tree.keysToArray().length;
+            }
+            return s;
+        });
+        measure(label, "infoToArray", rounds, copies, () -> () -> {
+            long s = 0;
+            for (int i = 0; i < copies; i++) {
+                s += tree.infoToArray().length;
+            }
+            return s;
+        });
+        measure(label, "nodeWalk", rounds, copies, () -> () -> {
+            long s = 0;
+            for (int i = 0; i < copies; i++) {
+                s += walk(tree.getRoot());
+            }
+            return s;
+        });
+        measure(label, "cursorScan", rounds, copies, () -> () -> {
+            long s = 0;
+            AVLTree.Cursor c = tree.cursor();
+            for (int i = 0; i < copies; i++) {
+                for (boolean ok = c.first(); ok; ok = c.next()) {
+                    s += c.key();
+                }
+            }
+            return s;
+        });
+        int width = Math.max(1, (tree.keysToArray()[size - 1] - tree.keysToArray()[0]) / 10);
+        measure(label, "rangeCount", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += tree.rangeCount(k, k + width);
+            }
+            return s;
+        });
+        measure(label, "rangeSum", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += tree.rangeSum(k, k + width);
+            }
+            return s;
+        });
+        AVLTree minKeys = AVLTree.fromSorted(tree.keysToArray(), tree.infoToArray(), AVLTree.Aggregate.MIN_KEY);
+        measure(label, "rangeMinKey", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += minKeys.rangeAggregate(k, k + width);
+            }
+            return s;
+        });
+        int scans = OPS / 100;
+        measure(label, "seek+100", rounds, scans, () -> () -> {
+            long s = 0;
+            AVLTree.Cursor c = tree.cursor();
+            for (int i = 0; i < scans; i++) {
+                boolean ok = c.seek(probes[i]);
+                for (int j = 0; ok && j < 100; j++, ok = c.next()) {
+                    s += c.key();
+                }
+            }
+            return s;
+        });
+    }
+
+    private static void persistent(int n, String dist, int rounds) {
+        int[] keys = keys(n, dist, 1);
+        String[] infos = new String[n];
+        for (int i = 0; i < n; i++) {
+            infos[i] = "v" + keys[i];
+        }
+        String label = dist + " " + n + " Persistent";
+        int trees = Math.max(1, OPS / n);
+        measure(label, "insert", rounds, (long) trees * n, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < trees; t++) {
+                AVLTree.PersistentAVLTree tree = new AVLTree.PersistentAVLTree();
+                for (int i = 0; i < n; i++) {
+                    s += tree.insert(keys[i], infos[i]);
+                }
+            }
+            return s;
+        });
+        measure(label, "delete", rounds, (long) trees * n, () -> {
+            AVLTree.PersistentAVLTree[] built = new AVLTree.PersistentAVLTree[trees];
+            for (int t = 0; t < trees; t++) {
+                built[t] = new AVLTree.PersistentAVLTree();
+                for (int i = 0; i < n; i++) {
+                    built[t].insert(keys[i], infos[i]);
+                }
+            }
+            return () -> {
+                long s = 0;
+                for (AVLTree.PersistentAVLTree tree : built) {
+                    for (int i = 0; i < n; i++) {
+                        s += tree.delete(keys[i]);
+                    }
+                }
+                return s;
+            };
+        });
+        AVLTree.PersistentAVLTree tree = new AVLTree.PersistentAVLTree();
+        for (int i = 0; i < n; i++) {
+            tree.insert(keys[i], infos[i]);
+        }
+        int[] probes = probes(keys, OPS, dist);
+        measure(label, "search", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int k : probes) {
+                s += (tree.search(k) == null) ? 0 : 1;
+            }
+            return s;
+        });
+        AVLTree.PersistentAVLTree.Snapshot[] kept = new AVLTree.PersistentAVLTree.Snapshot[1024];
+        measure(label, "snapshot", rounds, OPS, () -> () -> {
+            long s = 0;
+            for (int i = 0; i < OPS; i++) {
+                kept[i & 1023] = tree.snapshot(); // kept, so that the snapshot is really made
+                s += kept[i & 1023].size();
+            }
+            return s;
+        });
+    }
+
+    /**
+     * one kind of tree for engines. each method runs a whole loop, so that the
+     * loop calls a single tree class and the engines do not share call sites
+     */
+    abstract static class Engine<T> {
+
+        final String name;
+
+        Engine(String name) {
+            this.name = name;
+        }
+
+        abstract T create();
+
+        abstract long insert(T tree, int[] keys);
+
+        abstract long search(T tree, int[] probes);
+
+        abstract long delete(T tree, int[] keys);
+    }
+
+    static final Engine<AVLTree.IntIntAVLTree> INT_INT = new Engine<>("IntInt") {
+        AVLTree.IntIntAVLTree create() {
+            return new AVLTree.IntIntAVLTree();
+        }
+
+        long insert(AVLTree.IntIntAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.insert(k, k);
+            }
+            return s;
+        }
+
+        long search(AVLTree.IntIntAVLTree tree, int[] probes) {
+            long s = 0;
+            for (int k : probes) {
+                s += tree.search(k, 0);
+            }
+            return s;
+        }
+
+        long delete(AVLTree.IntIntAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.delete(k);
+            }
+            return s;
+        }
+    };
+
+    static final Engine<AVLTree.LongLongAVLTree> LONG_LONG = new Engine<>("LongLong") {
+        AVLTree.LongLongAVLTree create() {
+            return new AVLTree.LongLongAVLTree();
+        }
+
+        long insert(AVLTree.LongLongAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.insert(k, k);
+            }
+            return s;
+        }
+
+        long search(AVLTree.LongLongAVLTree tree, int[] probes) {
+            long s = 0;
+            for (int k : probes) {
+                s += tree.search(k, 0);
+            }
+            return s;
+        }
+
+        long delete(AVLTree.LongLongAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.delete(k);
+            }
+            return s;
+        }
+    };
+
+    static final Engine<AVLTree.LongObjAVLTree<String>> LONG_OBJ = new Engine<>("LongObj") {
+        AVLTree.LongObjAVLTree<String> create() {
+            return new AVLTree.LongObjAVLTree<>();
+        }
+
+        long insert(AVLTree.LongObjAVLTree<String> tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.insert(k, "");
+            }
+            return s;
+        }
+
+        long search(AVLTree.LongObjAVLTree<String> tree, int[] probes) {
+            long s = 0;
+            for (int k : probes) {
+                s += (tree.search(k) == null) ? 0 : 1;
+            }
+            return s;
+        }
+
+        long delete(AVLTree.LongObjAVLTree<String> tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.delete(k);
+            }
+            return s;
+        }
+    };
+
+    static final Engine<AVLTree.PooledAVLTree> POOLED = new Engine<>("Pooled") {
+        AVLTree.PooledAVLTree create() {
+            return new AVLTree.PooledAVLTree();
+        }
+
+        long insert(AVLTree.PooledAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.insert(k, "");
+            }
+            return s;
+        }
+
+        long search(AVLTree.PooledAVLTree tree, int[] probes) {
+            long s = 0;
+            for (int k : probes) {
+                s += (tree.search(k) == null) ? 0 : 1;
+            }
+            return s;
+        }
+
+        long delete(AVLTree.PooledAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.delete(k);
+            }
+            return s;
+        }
+    };
+
+    static final Engine<AVLTree.OffHeapAVLTree> OFF_HEAP = new Engine<>("OffHeap") {
+        AVLTree.OffHeapAVLTree create() {
+            return new AVLTree.OffHeapAVLTree();
+        }
+
+        long insert(AVLTree.OffHeapAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.insert(k, "");
+            }
+            return s;
+        }
+
+        long search(AVLTree.OffHeapAVLTree tree, int[] probes) {
+            long s = 0;
+            for (int k : probes) {
+                s += (tree.search(k) == null) ? 0 : 1;
+            }
+            return s;
+        }
+
+        long delete(AVLTree.OffHeapAVLTree tree, int[] keys) {
+            long s = 0;
+            for (int k : keys) {
+                s += tree.delete(k);
+            }
+            return s;
+        }
+    };
+
+    private static void engines(int n, String dist, int rounds) {
+        int[] keys = keys(n, dist, 1);
+        int[] probes = probes(keys, OPS, dist);
+        String label = dist + " " + n + " ";
+        timeEngine(label, INT_INT, keys, probes, rounds);
+        timeEngine(label, LONG_LONG, keys, probes, rounds);
+        timeEngine(label, LONG_OBJ, keys, probes, rounds);
+        timeEngine(label, POOLED, keys, probes, rounds);
+        timeEngine(label, OFF_HEAP, keys, probes, rounds);
+        timeEngine(label + "again ", INT_INT, keys, probes, rounds);
+    }
+
+    private static <T> void timeEngine(String label, Engine<T> engine, int[] keys, int[] probes, int rounds) {
+        label += engine.name;
+        int trees = Math.max(1, OPS / keys.length);
+        measure(label, "insert", rounds, (long) trees * keys.length, () -> () -> {
+            long s = 0;
+            for (int t = 0; t < trees; t++) {
+                s += engine.insert(engine.create(), keys);
+            }
+            return s;
+        });
+        T tree = engine.create();
+        engine.insert(tree, keys);
+        measure(label, "search", rounds, probes.length, () -> () -> engine.search(tree, probes));
+        measure(label, "delete", rounds, (long) trees * keys.length, () -> {
+            List<T> built = new ArrayList<>();
+            for (int t = 0; t < trees; t++) {
+                T b = engine.create();
+                engine.insert(b, keys);
+                built.add(b);
+            }
+            return () -> {
+                long s = 0;
+                for (T b : built) {
+                    s += engine.delete(b, keys);
+                }
+                return s;
+            };
+        });
+    }
+
+    private static void batch(int n, int rounds) {
+        int[] base = new int[n];
+        String[] infos = new String[n];
+        for (int i = 0; i < n; i++) {
+            base[i] = 2 * i;
+            infos[i] = "v" + base[i];
+        }
+        Random random = new Random(6);
+        for (int size : new int[] {10000, 100000}) {
+            int[] fresh = new int[size];
+            int[] present = new int[size];
+            String[] freshInfos = new String[size];
+            for (int i = 0; i < size; i++) {
+                fresh[i] = 2 * random.nextInt(n) + 1; // odd, so not in the tree
+                freshInfos[i] = "v" + fresh[i];
+                present[i] = 2 * random.nextInt(n);
+            }
+            String label = "batch " + size + " of " + n;
+            measure(label, "insert", rounds, size, () -> {
+                AVLTree tree = AVLTree.fromSorted(base, infos);
+                return () -> {
+                    long s = 0;
+                    for (int i = 0; i < size; i++) {
+                        s += tree.insert(fresh[i], freshInfos[i]);
+                    }
+                    return s;
+                };
+            });
+            measure(label, "insertAll", rounds, size, () -> {
+                AVLTree tree = AVLTree.fromSorted(base, infos);
+                return () -> tree.insertAll(fresh, freshInfos);
+            });
+            measure(label, "delete", rounds, size, () -> {
+                AVLTree tree = AVLTree.fromSorted(base, infos);
+                return () -> {
+                    long s = 0;
+                    for (int k : present) {
+                        s += tree.delete(k);
+                    }
+                    return s;
+                };
+            });
+            measure(label, "deleteAll", rounds, size, () -> {
+                AVLTree tree = AVLTree.fromSorted(base, infos);
+                return () -> tree.deleteAll(present);
+            });
+        }
+    }
+
+    private static void splitJoin(int n, int rounds) {
+        int[] keys = new int[n];
+        String[] infos = new String[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = 2 * i;
+            infos[i] = "v" + keys[i];
+        }
+        int[] at = new int[1 << 16];
+        Random random = new Random(8);
+        for (int i = 0; i < at.length; i++) {
+            at[i] = 2 * random.nextInt(n) + 1; // between two keys
+        }
+        String label = "splitjoin " + n;
+        AVLTree[] tree = {AVLTree.fromSorted(keys, infos)};
+        measure(label, "split+join", rounds, at.length, () -> () -> {
+            long s = 0;
+            for (int k : at) {
+                AVLTree[] halves = tree[0].split(k);
+                tree[0] = AVLTree.join(halves[0], k, "j", halves[1]);
+                s += tree[0].delete(k);
+            }
+            return s;
+        });
+        int splits = Math.max(1, OPS / 4 / n);
+        measure(label, "insert", rounds, splits, () -> () -> {
+            long s = 0;
+            for (int j = 0; j < splits; j++) {
+                int k = at[j];
+                AVLTree lower = new AVLTree();
+                AVLTree upper = new AVLTree();
+                for (int i = 0; i < n; i++) {
+                    (keys[i] < k ? lower : upper).insert(keys[i], infos[i]);
+                }
+                AVLTree whole = build(keys, infos);
+                whole.insert(k, "j");
+                s += lower.size() + upper.size() + whole.size();
+            }
+            return s;
+        });
+    }
+
+
+    static Shared shared(AVLTree.StampedAVLTree tree) {
+        return new Shared() {
+            public String search(int k) {
+                return tree.search(k);
+            }
+
+            public String select(int i) {
+                return tree.select(i);
+            }
+
+            public int size() {
+                return tree.size();
+            }
+
+            public int insert(int k, String i) {
+                return tree.insert(k, i);
+            }
+
+            public int delete(int k) {
+                return tree.delete(k);
+            }
+        };
+    }
+
+    static Shared shared(AVLTree.ShardedAVLTree tree) {
+        return new Shared() {
+            public String search(int k) {
+                return tree.search(k);
+            }
+
+            public String select(int i) {
+                return tree.select(i);
+            }
+
+            public int size() {
+                return tree.size();
+            }
+
+            public int insert(int k, String i) {
+                return tree.insert(k, i);
+            }
+
+            public int delete(int k) {
+                return tree.delete(k);
+            }
+        };
+    }
+
+    /** an AVLTree behind one monitor */
+    static Shared locked(AVLTree tree) {
+        return new Shared() {
+            public synchronized String search(int k) {
+                return tree.search(k);
+            }
+
+            public synchronized String select(int i) {
+                return tree.select(i);
+            }
+
+            public synchronized int size() {
+                return tree.size();
+            }
+
+            public synchronized int insert(int k, String i) {
+                return tree.insert(k, i);
+            }
+
+            public synchronized int delete(int k) {
+                return tree.delete(k);
+            }
+        };
+    }
+
+    /** a LoggedAVLTree that counts the forces of its log */
+    private static class CountingLog extends AVLTree.LoggedAVLTree {
+
+        final AtomicLong forces = new AtomicLong();
+
+        CountingLog(Path file, long commitDelayNanos) throws IOException {
+            super(file, commitDelayNanos);
+        }
+
+        void write(ByteBuffer records) throws IOException {
+            forces.incrementAndGet();
+            super.write(records);
+        }
+    }
+
+    private static void logged(int rounds) throws IOException {
+        int ops = 1 << 12;
+        for (long delay : new long[] {0, 20_000, 100_000, 1_000_000}) {
+            String label = "logged delay " + delay / 1000 + "us";
+            for (int count : new int[] {1, 2, 4, 8}) {
+                String threads = count + " thread" + ((count > 1) ? "s" : "");
+                if (only != null && !only.contains(threads)) {
+                    continue;
+                }
+                long best = Long.MAX_VALUE;
+                double perForce = 0;
+                for (int r = 0; r < 2 * rounds; r++) {
+                    Path file = Files.createTempFile("avltree", ".ckpt");
+                    Files.delete(file);
+                    CountingLog tree = new CountingLog(file, delay);
+                    Thread[] workers = new Thread[count];
+                    for (int t = 0; t < count; t++) {
+                        int id = t;
+                        workers[t] = new Thread(() -> {
+                            for (int i = id; i < ops; i += count) {
+                                tree.insert(i, "v" + i);
+                            }
+                        });
+                    }
+                    long start = System.nanoTime();
+                    for (Thread t : workers) {
+                        t.start();
+                    }
+                    for (Thread t : workers) {
+                        try {
+                            t.join();
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                    long nanos = System.nanoTime() - start;
+                    if (r >= rounds && nanos < best) {
+                        best = nanos;
+                        perForce = (double) ops / tree.forces.get();
+                    }
+                    tree.close();
+                    deleteLogged(file);
+                }
+                System.out.printf("%-28s %-18s %14.1f ops/s %8.1f records/force%n", label, threads,
+                        (double) ops * 1e9 / best, perForce);
+            }
+        }
+    }
+
+    private static void threads(int n, int rounds) {
+        String[] infos = new String[n];
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = 2 * i;
+            infos[i] = "v" + keys[i];
+        }
+        for (int writes : new int[] {0, 10, 50}) {
+            String label = "threads " + n + " " + writes + "% writes";
+            for (int count : new int[] {1, 2, 4}) {
+                String threads = count + " thread" + ((count > 1) ? "s" : "");
+                measureThreads(label, "Stamped " + threads, rounds, count, writes, n, () -> {
+                    AVLTree.StampedAVLTree tree = new AVLTree.StampedAVLTree();
+                    tree.insertAll(keys, infos);
+                    return shared(tree);
+                });
+                measureThreads(label, "Sharded " + threads, rounds, count, writes, n, () -> {
+                    AVLTree.ShardedAVLTree tree = new AVLTree.ShardedAVLTree(16);
+                    for (int i = 0; i < n; i++) {
+                        tree.insert(keys[i], infos[i]);
+                    }
+                    return shared(tree);
+                });
+                measureThreads(label, "locked " + threads, rounds, count, writes, n,
+                        () -> locked(AVLTree.fromSorted(keys, infos)));
+            }
+        }
+    }
+
+    /**
+     * runs rounds warm up runs and rounds measured runs of count threads, each doing OPS / count
+     * random searches, inserts and deletes (writes percent of them) on the tree prepare makes,
+     * and prints the operations per second of the best run
+     */
+    static void measureThreads(String label, String name, int rounds, int count, int writes, int n,
+            Supplier<Shared> prepare) {
+        if (only != null && !only.contains(name)) {
+            return;
+        }
+        int ops = OPS / count;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 2 * rounds; r++) {
+            Shared tree = prepare.get();
+            Thread[] threads = new Thread[count];
+            long[] sums = new long[count];
+            for (int t = 0; t < count; t++) {
+                int id = t;
+                threads[t] = new Thread(() -> {
+                    Random random = new Random(id);
+                    long s = 0;
+                    for (int op = 0; op < ops; op++) {
+                        int k = random.nextInt(2 * n);
+                        int dice = random.nextInt(100);
+                        if (dice >= writes) {
+                            s += (tree.search(k) == null) ? 0 : 1;
+                        }
+                        else if ((dice & 1) == 0) {
+                            s += tree.insert(k | 1, "w");
+                        }
+                        else {
+                            s += tree.delete(k | 1);
+                        }
+                    }
+                    sums[id] = s;
+                });
+            }
+            long start = System.nanoTime();
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                try {
+                    t.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            sink += Arrays.stream(sums).sum();
+            if (r >= rounds) {
+                best = Math.min(best, nanos);
+            }
+        }
+        System.out.printf("%-28s %-18s %14.1f ops/s%n", label, name, (double) ops * count * 1e9 / best);
+    }
+
+    static AVLTree build(int[] keys, String[] infos) {
+        AVLTree tree = new AVLTree();
+        for (int i = 0; i < keys.length; i++) {
+            tree.insert(keys[i], infos[i]);
+        }
+        return tree;
+    }
+
+    /**
+     * runs rounds warm up runs and rounds measured runs of ops operations each, and prints
+     * the best time, the least allocation, and the collections during the measured runs.
+     * prepare (not timed) makes the run
+     */
+    static void measure(String label, String name, int rounds, long ops, Supplier<Run> prepare) {
+        if (only != null && !only.contains(name)) {
+            return;
+        }
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        long gcCount = 0;
+        long gcMillis = 0;
+        long thread = Thread.currentThread().getId();
+        for (int r = 0; r < 2 * rounds; r++) {
+            Run run = prepare.get();
+            long count = gcCount();
+            long millis = gcMillis();
+            long bytes = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            sink += run.run();
+            long nanos = System.nanoTime() - start;
+            bytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+            if (r >= rounds) {
+                bestNanos = Math.min(bestNanos, nanos);
+                bestBytes = Math.min(bestBytes, bytes);
+                gcCount += gcCount() - count;
+                gcMillis += gcMillis() - millis;
+            }
+        }
+        System.out.printf("%-28s %-12s %14.1f ops/s %12.1f B/op %5d gc %7d ms%n",
+                label, name, ops * 1e9 / bestNanos, (double) bestBytes / ops, gcCount, gcMillis);
+    }
+
+    /** the infos are made while building, so that each tree holds the only reference to them */
+    private static void gc(int n, String dist) {
+        int[] keys = keys(n, dist, 1);
+        String label = dist + " " + n;
+        collect(label, "AVLTree", () -> {
+            AVLTree tree = new AVLTree();
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            return tree;
+        });
+        collect(label, "AVLTree MIN_KEY", () -> {
+            AVLTree tree = new AVLTree(AVLTree.Aggregate.MIN_KEY);
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            return tree;
+        });
+        collect(label, "PooledAVLTree", () -> {
+            AVLTree.PooledAVLTree tree = new AVLTree.PooledAVLTree();
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            return tree;
+        });
+        collect(label, "OffHeapAVLTree", () -> {
+            AVLTree.OffHeapAVLTree tree = new AVLTree.OffHeapAVLTree();
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            return tree;
+        });
+    }
+
+    private static void footprint(int n, String dist) throws IOException {
+        int[] keys = keys(n, dist, 1);
+        int items = (int) Arrays.stream(keys).distinct().count();
+        String label = dist + " " + items;
+        held(label, "AVLTree", items, () -> {
+            AVLTree tree = new AVLTree();
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            return tree;
+        });
+        // each item gets its own String, as when the infos come from parsing or a network
+        held(label, "AVLTree 100 infos", items, () -> {
+            AVLTree tree = new AVLTree();
+            for (int k : keys) {
+                tree.insert(k, "w" + Math.floorMod(k, 100));
+            }
+            return tree;
+        });
+        held(label, "AVLTree dictionary", items, () -> {
+            AVLTree tree = new AVLTree();
+            tree.setInfoDictionary(new AVLTree.InfoDictionary());
+            for (int k : keys) {
+                tree.insert(k, "w" + Math.floorMod(k, 100));
+            }
+            return tree;
+        });
+        held(label, "TreeMap 100 infos", items, () -> {
+            TreeMap<Integer, String> map = new TreeMap<>();
+            for (int k : keys) {
+                map.putIfAbsent(k, "w" + Math.floorMod(k, 100));
+            }
+            return map;
+        });
+        Path file = Files.createTempFile("avltree", ".snap");
+        AVLTree tree = new AVLTree();
+        for (int k : keys) {
+            tree.insert(k, "w" + Math.floorMod(k, 100));
+        }
+        AVLTree.SnapshotFile.write(tree, file);
+        tree = null;
+        held(label, "read 100 infos", items, () -> readSnapshot(file, null));
+        held(label, "read dictionary", items, () -> readSnapshot(file, new AVLTree.InfoDictionary()));
+        Files.delete(file);
+    }
+
+    static AVLTree readSnapshot(Path file, AVLTree.InfoDictionary dictionary) {
+        try {
+            return AVLTree.SnapshotFile.read(file, dictionary);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** prints the heap held by what build returns, per item and in all */
+    static void held(String label, String name, int items, Supplier<Object> build) {
+        long before = usedHeap();
+        Object tree = build.get();
+        long held = usedHeap() - before;
+        System.out.printf("%-28s %-20s %8.1f B/item %10.1f MB held%n", label, name, (double) held / items, held / 1e6);
+        Reference.reachabilityFence(tree);
+    }
+
+    /** prints the heap held by the tree that build returns and the best time of three full collections with it live */
+    static void collect(String label, String name, Supplier<Object> build) {
+        long before = usedHeap();
+        Object tree = build.get();
+        long held = usedHeap() - before;
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            System.gc();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %-16s %10.1f MB held %8.1f ms full gc%n", label, name, held / 1e6, best / 1e6);
+        Reference.reachabilityFence(tree);
+    }
+
+    private static void startup(int n, String dist) throws IOException {
+        int[] keys = keys(n, dist, 1);
+        Path file = Files.createTempFile("avltree", ".avl");
+        try (AVLTree.MappedAVLTree tree = new AVLTree.MappedAVLTree(file)) {
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+        }
+        String label = dist + " " + n;
+        long open = Long.MAX_VALUE;
+        long rebuild = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            try (AVLTree.MappedAVLTree tree = new AVLTree.MappedAVLTree(file)) {
+                sink += (tree.search(keys[0]) == null) ? 0 : 1;
+                open = Math.min(open, System.nanoTime() - start);
+            }
+            start = System.nanoTime();
+            AVLTree.OffHeapAVLTree tree = new AVLTree.OffHeapAVLTree();
+            for (int k : keys) {
+                tree.insert(k, "v" + k);
+            }
+            sink += (tree.search(keys[0]) == null) ? 0 : 1;
+            rebuild = Math.min(rebuild, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %10.1f ms open MappedAVLTree %10.1f ms insert into OffHeapAVLTree%n",
+                label, open / 1e6, rebuild / 1e6);
+        deleteTree(file);
+    }
+
+    private static void snapshot(int n, String dist) throws IOException {
+        int[] keys = Arrays.stream(keys(n, dist, 1)).sorted().distinct().toArray();
+        String[] infos = new String[keys.length];
+        long fixed = 16 + 4;
+        for (int i = 0; i < keys.length; i++) {
+            infos[i] = "v" + keys[i];
+            fixed += 8 + infos[i].length();
+        }
+        AVLTree tree = AVLTree.fromSorted(keys, infos);
+        Path file = Files.createTempFile("avltree", ".snap");
+        long writeTree = Long.MAX_VALUE;
+        long writeArrays = Long.MAX_VALUE;
+        long read = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            AVLTree.SnapshotFile.write(tree, file);
+            writeTree = Math.min(writeTree, System.nanoTime() - start);
+            start = System.nanoTime();
+            AVLTree.SnapshotFile.write(tree.keysToArray(), tree.infoToArray(), file);
+            writeArrays = Math.min(writeArrays, System.nanoTime() - start);
+            start = System.nanoTime();
+            sink += AVLTree.SnapshotFile.read(file).size();
+            read = Math.min(read, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %8.1f ms write %8.1f ms write arrays %8.1f ms read %6.2f B/item (fixed width %.2f)%n",
+                dist + " " + keys.length, writeTree / 1e6, writeArrays / 1e6, read / 1e6,
+                (double) Files.size(file) / keys.length, (double) fixed / keys.length);
+        Files.delete(file);
+    }
+
+    /** heap in use after a full collection */
+    static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += gc.getCollectionTime();
+        }
+        return millis;
+    }
+}